@@ -1,34 +1,42 @@
-import java.io.Serializable;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 
-public class Account implements Serializable {
+public class Account {
     private final String id;
     private final AccountType type;
     private final String number;
     private final String sortCode;
-    private final double initialBalance;
-    private double balance;
-    private final DynamicList<Transaction> transactions;
+    private final long initialBalance; // Pence
+    private long balance;
+    private long expectedBalance; // initialBalance plus every posted amount, kept up to date by addTransaction
+    private final Ledger ledger;
+    private final int ordinal;
+    private PostingList transactions;
     private final DynamicList<User> users;
     private final LocalDateTime createdAt;
     private Status status;
+    private LocalDate interestPaidTo; // Last day interest has been paid for, null before the first payment
+    // Its Users and type never change, so built once on first use
+    private String name;
 
-    public Account(String id, AccountType type, String number, String sortCode, double initialBalance, DynamicList<Transaction> transactions, DynamicList<User> users, LocalDateTime createdAt) {
+    public Account(String id, AccountType type, String number, String sortCode, long initialBalance, Ledger ledger, DynamicList<User> users, LocalDateTime createdAt) {
         this.id = id;
         this.type = type;
         this.number = number;
         this.sortCode = sortCode;
         this.initialBalance = initialBalance;
         this.balance = initialBalance;
-        this.transactions = transactions;
+        this.expectedBalance = initialBalance;
+        this.ledger = ledger;
+        this.transactions = new PostingList();
         this.users = users;
         this.createdAt = createdAt;
         this.status = Status.ACTIVE;
         setNames();
+        this.ordinal = ledger.register(this);
     }
 
     private void setNames() {
-        transactions.setName(formatName() + " Transactions");
         users.setName(formatName() + " Users");
     }
 
@@ -65,9 +73,11 @@ public class Account implements Serializable {
             output.append("\n > Created At: ").append(Utility.formatDate(createdAt));
             if (active) {
                 if (!transactions.isEmpty()) {
-                    output.append("\n > Latest Transactions (" + Math.min(transactions.size(), LOAD_LIMIT) + "/" + transactions.size() + "): ");
-                    for (int i = transactions.size() - 1; i >= Math.max(0, transactions.size() - LOAD_LIMIT); i--) {
-                        output.append("\n").append("    > ").append(transactions.get(i).toString(this));
+                    RecentPostings latest = transactions.latest(LOAD_LIMIT);
+                    int shown = Math.min(latest.size(), LOAD_LIMIT);
+                    output.append("\n > Latest Transactions (" + shown + "/" + transactions.size() + "): ");
+                    for (int i = 0; i < shown; i++) {
+                        output.append("\n").append("    > ").append(ledger.get(latest.get(i)).toString(this));
                     }
                 } else output.append("\n > No Previous Transactions");
             }
@@ -112,6 +122,11 @@ public class Account implements Serializable {
     }
 
     public String formatName() {
+        if (name == null) name = buildName();
+        return name;
+    }
+
+    private String buildName() {
         if (hasMultipleUsers()) {
             if (users.size() == 2 && (users.get(0).checkLastName(users.get(1)))) {
                 String[] payeeParts = users.get(0).formatPayeeName().split(" ");
@@ -136,19 +151,99 @@ public class Account implements Serializable {
         return id;
     }
 
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public String getSortCode() {
+        return sortCode;
+    }
+
+    long getInitialBalance() {
+        return initialBalance;
+    }
+
+    long getBalance() {
+        return balance;
+    }
+
+    long getExpectedBalance() {
+        return expectedBalance;
+    }
+
+    DynamicList<User> getUsers() {
+        return users;
+    }
+
+    LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    PostingList getTransactions() {
+        return transactions;
+    }
+
+    LocalDate getInterestPaidTo() {
+        return interestPaidTo;
+    }
+
+    void setInterestPaidTo(LocalDate interestPaidTo) {
+        this.interestPaidTo = interestPaidTo;
+    }
+
+    // Puts back the state DatabaseCodec saved, the constructor only knows the opening state
+    void restore(long balance, long expectedBalance, Status status, PostingList transactions) {
+        this.balance = balance;
+        this.expectedBalance = expectedBalance;
+        this.status = status;
+        this.transactions = transactions;
+    }
+
+    // This Account's transactions matching query, oldest first, after the one with key (HistoryCursor.START for all)
+    public HistoryCursor query(Request.History query, int after) {
+        return new HistoryCursor(ledger, transactions, query, after);
+    }
+
     public Boolean checkNumber(String attemptedNumber) {
         return number.equals(attemptedNumber);
     }
 
+    // Transfers between Accounts with no User in common pay the Bank's transaction charge
+    public Boolean sharesUser(Account account) {
+        for (User user : users) {
+            if (account.users.contains(user)) return true;
+        }
+        return false;
+    }
+
     public Boolean checkSortCode(String attemptedSortCode) {
         return sortCode.equals(attemptedSortCode);
     }
 
-    public void addTransaction(Transaction transaction) {
-        transactions.add(transaction);
+    public void addTransaction(int offset) {
+        transactions.add(offset);
+        expectedBalance += ledger.getAmount(offset, ordinal);
+    }
+
+    // Only undoes the latest posting, callers hold this Account's lock throughout
+    void removeTransaction(int offset) {
+        if (transactions.isEmpty() || transactions.get(transactions.size() - 1) != offset) {
+            throw new IllegalStateException("Error: Transaction " + offset + " is not the latest posting of Account '" + id + "'");
+        }
+        transactions.removeLast();
+        expectedBalance -= ledger.getAmount(offset, ordinal);
+    }
+
+    // Unchecked, for the transfer engine which authorises and locks before calling
+    void adjustBalance(long amount) {
+        balance += amount;
     }
 
-    public void changeBalance(double amount) {
+    public void changeBalance(long amount) {
         // Amount must be positive OR User must be logged in to negate money
         if (((amount < 0) && (userLoggedIn())) || (amount >= 0)) {
             balance += amount;
@@ -157,7 +252,7 @@ public class Account implements Serializable {
         }
     }
 
-    public Boolean canAfford(double amount) {
+    public Boolean canAfford(long amount) {
         return amount <= balance;
     }
 
@@ -166,16 +261,21 @@ public class Account implements Serializable {
     }
 
     public Boolean checkBalance() {
-        double testBalance = initialBalance;
+        return expectedBalance == balance;
+    }
+
+    // Replays the whole history rather than trusting the running total
+    public Boolean verifyBalance() {
+        long testBalance = initialBalance;
 
-        for (Transaction transaction : transactions) {
-            testBalance += transaction.getAmount(this);
+        for (int i = 0; i < transactions.size(); i++) {
+            testBalance += ledger.getAmount(transactions.get(i), ordinal);
         }
 
-        return testBalance == balance;
+        return testBalance == balance && testBalance == expectedBalance;
     }
 
-    public double getInitialBalance(Bank bank) {
+    public long getInitialBalance(Bank bank) {
         // Verify that correct bank is given
         if (checkSortCode(bank.getSortCode())) {
             return initialBalance;
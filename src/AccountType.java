@@ -1,18 +1,18 @@
 public enum AccountType {
-    SAVINGS("Savings", 1.05, false),
-    YOUNG_SAVERS("Young Savers", 1.10, false),
-    SPENDING("Spending", 1.01, false),
-    CHECKING("Checking", 1.01, false),
-    BUSINESS("Business", 1.01, true),
-    JOINT("Joint", 1.04, true),
-    PERSONAL("Personal", 1.05, false),
-    STUDENT("Student", 1.08, false);
+    SAVINGS("Savings", 500, false),
+    YOUNG_SAVERS("Young Savers", 1000, false),
+    SPENDING("Spending", 100, false),
+    CHECKING("Checking", 100, false),
+    BUSINESS("Business", 100, true),
+    JOINT("Joint", 400, true),
+    PERSONAL("Personal", 500, false),
+    STUDENT("Student", 800, false);
 
     private final String value;
-    private final double interestRate;
+    private final int interestRate; // Basis points
     private final Boolean joint;
 
-    AccountType(String value, double interestRate, Boolean joint) {
+    AccountType(String value, int interestRate, Boolean joint) {
         this.value = value;
         this.interestRate = interestRate;
         this.joint = joint;
@@ -26,6 +26,10 @@ public enum AccountType {
         return new DynamicList<>("Account Types", AccountType.values());
     }
 
+    public int getInterestRate() {
+        return interestRate;
+    }
+
     public Boolean isJoint() {
         return joint;
     }
@@ -1,26 +1,34 @@
-import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-public class Bank implements Serializable {
+public class Bank {
     private final String id;
     private final String name;
     private final String sortCode;
-    private final double interestRate;
-    private final double transactionCharge;
-    private final double initialBalance;
-    private double balance;
+    private final int interestRate; // Basis points
+    private final int transactionCharge; // Basis points
+    private final long initialBalance; // Pence
+    private long balance;
+    private long expectedBalance; // Moved by each Account's initial balance and each charge as they are added
     private final DynamicList<Account> accounts;
-    private final DynamicList<Transaction> transactions;
+    private final Ledger ledger;
+    private PostingList transactions;
+    private final Map<String, StandingOrder> standingOrders; // By id, every order paid from one of its Accounts
 
-    public Bank(String id, String name, String sortCode, double interestRate, double transactionCharge, double initialBalance, DynamicList<Account> accounts, DynamicList<Transaction> transactions) {
+    public Bank(String id, String name, String sortCode, int interestRate, int transactionCharge, long initialBalance, DynamicList<Account> accounts, Ledger ledger) {
         this.id = id;
         this.name = name; // A Bank Name
         this.sortCode = sortCode; // XX-XX-XX
-        this.interestRate = interestRate; // 0.01
-        this.transactionCharge = transactionCharge; // 0.01
+        this.interestRate = interestRate; // 100 (1%)
+        this.transactionCharge = transactionCharge; // 100 (1%)
         this.initialBalance = initialBalance;
         this.balance = initialBalance;
+        this.expectedBalance = initialBalance;
         this.accounts = accounts;
-        this.transactions = transactions;
+        this.ledger = ledger;
+        this.transactions = new PostingList();
+        this.standingOrders = new LinkedHashMap<>();
     }
 
     public String getId() {
@@ -41,9 +49,11 @@ public class Bank implements Serializable {
         output.append("\n > Transaction Charge: ").append(Utility.formatPercent(transactionCharge));
         output.append("\n > Balance: ").append(Utility.formatMoney(balance));
         if (!transactions.isEmpty()) {
-            output.append("\n > Latest Transactions (" + Math.min(transactions.size(), LOAD_LIMIT) + "/" + transactions.size() + "): ");
-            for (int i = transactions.size() - 1; i >= Math.max(0, transactions.size() - LOAD_LIMIT); i--) {
-                output.append("\n").append("    > ").append(transactions.get(i).toString());
+            RecentPostings latest = transactions.latest(LOAD_LIMIT);
+            int shown = Math.min(latest.size(), LOAD_LIMIT);
+            output.append("\n > Latest Transactions (" + shown + "/" + transactions.size() + "): ");
+            for (int i = 0; i < shown; i++) {
+                output.append("\n").append("    > ").append(ledger.get(latest.get(i)).toString());
             }
         } else output.append("\n > No Previous Transactions");
 
@@ -54,37 +64,128 @@ public class Bank implements Serializable {
         return sortCode;
     }
 
+    String getName() {
+        return name;
+    }
+
+    int getInterestRate() {
+        return interestRate;
+    }
+
+    int getTransactionChargeRate() {
+        return transactionCharge;
+    }
+
+    long getInitialBalance() {
+        return initialBalance;
+    }
+
+    synchronized long getBalance() {
+        return balance;
+    }
+
+    synchronized long getExpectedBalance() {
+        return expectedBalance;
+    }
+
+    PostingList getTransactions() {
+        return transactions;
+    }
+
+    // Puts back the state DatabaseCodec saved, the constructor only knows the opening state
+    void restore(long balance, long expectedBalance, PostingList transactions) {
+        this.balance = balance;
+        this.expectedBalance = expectedBalance;
+        this.transactions = transactions;
+    }
+
+    // This Bank's transactions matching query, oldest first, after the one with key (HistoryCursor.START for all)
+    public HistoryCursor query(Request.History query, int after) {
+        return new HistoryCursor(ledger, transactions, query, after);
+    }
+
+    public DynamicList<Account> getAccounts() {
+        return accounts;
+    }
+
     public void addAccount(Account account) {
         accounts.add(account);
+        expectedBalance -= account.getInitialBalance(this);
     }
 
-    public double getTransactionCharge() {
-        return transactionCharge;
+    public StandingOrder getStandingOrder(String id) {
+        return standingOrders.get(id);
+    }
+
+    public Collection<StandingOrder> getStandingOrders() {
+        return standingOrders.values();
+    }
+
+    void addStandingOrder(StandingOrder standingOrder) {
+        standingOrders.put(standingOrder.getId(), standingOrder);
+    }
+
+    void removeStandingOrder(StandingOrder standingOrder) {
+        standingOrders.remove(standingOrder.getId(), standingOrder);
+    }
+
+    // Charge in pence for transferring amount
+    public long getTransactionCharge(long amount) {
+        return Utility.applyRate(amount, transactionCharge);
     }
 
-    public void addTransaction(Transaction transaction) {
-        transactions.add(transaction);
+    public synchronized void addTransaction(int offset) {
+        transactions.add(offset);
+        expectedBalance += ledger.getBankAmount(offset);
     }
 
-    public void changeMoney(double amount) {
+    // Adds the posting at offset and the amount it moves the balance by as one step, so transfers through this Bank
+    // only hold its lock for that and each sees the others whole. Anything reserved for it is given back first
+    // Nothing is changed when the balance would not match
+    synchronized boolean post(int offset, long amount, long reserved) {
+        long bankAmount = ledger.getBankAmount(offset);
+        if (expectedBalance + bankAmount != balance + amount) return false;
+        transactions.add(offset);
+        balance += reserved + amount;
+        expectedBalance += reserved + bankAmount;
+        return true;
+    }
+
+    // Takes amount out before it is posted, so two payments can not both spend the same money
+    synchronized boolean reserve(long amount) {
+        if (amount > balance) return false;
+        balance -= amount;
+        expectedBalance -= amount;
+        return true;
+    }
+
+    synchronized void release(long amount) {
+        balance += amount;
+        expectedBalance += amount;
+    }
+
+    public synchronized void changeMoney(long amount) {
         balance += amount;
     }
 
-    public Boolean canAfford(double amount) {
+    public synchronized Boolean canAfford(long amount) {
         return amount <= balance;
     }
 
-    public Boolean checkBalance() {
-        double testBalance = initialBalance;
+    public synchronized Boolean checkBalance() {
+        return expectedBalance == balance;
+    }
 
-        for (Account account : accounts) {
-            testBalance -= account.getInitialBalance(this);
-        }
+    // Replays every Account, charge and payment rather than trusting the running total
+    public Boolean verifyBalance() {
+        long testBalance = initialBalance;
+
+        testBalance -= accounts.sumLong(account -> account.getInitialBalance(this));
 
-        for (Transaction transaction : transactions) {
-            testBalance += transaction.getCharge();
+        for (int i = 0; i < transactions.size(); i++) {
+            testBalance += ledger.getBankAmount(transactions.get(i));
         }
 
-        return testBalance == balance;
+        return testBalance == balance && testBalance == expectedBalance;
     }
 }
@@ -1,21 +1,167 @@
 import java.io.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class BankDatabase {
+    private static final String USERNAME_REGEX = "^[a-zA-Z0-9_]{3,20}$";
+    private static final String PASSWORD_REGEX = "^(?=.*[0-9])(?=.*[A-Z])(?=.*[!@#$%^&*()-_=+{};:',.<>?/]).{8,}$";
+    private static final String TITLE_REGEX = "^[a-zA-Z ]{2,10}$";
+    private static final String FULL_NAME_REGEX = "^([A-Z][a-z]+ ){2,}$"; // Matched against fullName + " "
+    private static final String PAYEE_NAME_REGEX = "^[A-Z]+ [A-Z] [A-Z]+$";
+    private static final int INTEREST_SLICE = 4096; // Accounts paid by one task
+    private static final long ORDER_TICK_MILLIS = 1000; // How finely standing orders are timed
+    private static final int ORDER_BATCH = 4096; // Standing orders paid per Journal commit
 
-public class BankDatabase implements Serializable {
     private final DynamicList<User> users;
     private final DynamicList<Bank> banks;
     private DynamicList<String[]> securityQuestionInfo;
+    private final Ledger ledger;
+    private long journalSequence; // Last Journal record this snapshot already holds
+    private Journal journal;
+    private ShardStore shards;
+    // Held shared by every posting from before it changes anything until it is in the Journal, and exclusively by a
+    // snapshot, so the Journal sequence a snapshot stores matches the postings in the shards it writes
+    private final ReentrantReadWriteLock postingLock;
     private User loggedInUser = null;
 
+    // Lookups by the fields people type in, rebuilt on load and kept in step by the apply methods
+    private Map<String, User> usersByUsername;
+    private Map<String, List<User>> usersByPayeeName; // Upper case, more than one User can share a payee name
+    private Map<String, Bank> banksBySortCode;
+    private Map<String, Account> accountsByCredentials; // "SORT CODE,NUMBER"
+
+    // Standing orders by when they are next due, rebuilt on load and kept in step by the apply methods
+    private TimingWheel<ScheduledOrder> schedule;
+    private ArrayDeque<ScheduledOrder> dueOrders; // Handed out by the wheel and not yet paid
+
+    // Stale once the order is cancelled or has moved on to another due date
+    private record ScheduledOrder(StandingOrder standingOrder, LocalDateTime due) {}
+
+    // Standing orders paid and missed (declined, Account not ACTIVE or User removed) by one runDueOrders
+    public record OrderRun(int paid, int missed) {}
+
     public BankDatabase() {
-        this.users = new DynamicList<>("Users");
-        this.banks = new DynamicList<>("Banks");
+        this.users = new DynamicList<>("Users", User::getId);
+        this.banks = new DynamicList<>("Banks", Bank::getId);
+        this.securityQuestionInfo = getSecurityQuestionInfo();
+        this.ledger = new Ledger();
+        postingLock = new ReentrantReadWriteLock();
+        buildIndexes();
+        buildSchedule();
+    }
+
+    // For DatabaseCodec, which has already rebuilt everything
+    BankDatabase(DynamicList<User> users, DynamicList<Bank> banks, Ledger ledger, long journalSequence, User loggedInUser) {
+        this.users = users;
+        this.banks = banks;
         this.securityQuestionInfo = getSecurityQuestionInfo();
+        this.ledger = ledger;
+        this.journalSequence = journalSequence;
+        this.loggedInUser = loggedInUser;
+        postingLock = new ReentrantReadWriteLock();
+        buildIndexes();
+        buildSchedule();
+    }
+
+    // INDEXES
+
+    private void buildIndexes() {
+        usersByUsername = new ConcurrentHashMap<>();
+        usersByPayeeName = new ConcurrentHashMap<>();
+        banksBySortCode = new ConcurrentHashMap<>();
+        accountsByCredentials = new ConcurrentHashMap<>();
+        for (User user : users) indexUser(user);
+        for (Bank bank : banks) {
+            banksBySortCode.put(bank.getSortCode(), bank);
+            for (Account account : bank.getAccounts()) indexAccount(account);
+        }
+    }
+
+    private void indexUser(User user) {
+        usersByUsername.put(user.getUsername(), user);
+        usersByPayeeName.computeIfAbsent(payeeKey(user.formatPayeeName()), key -> new CopyOnWriteArrayList<>()).add(user);
+    }
+
+    private void unindexUser(User user) {
+        usersByUsername.remove(user.getUsername(), user);
+        usersByPayeeName.computeIfPresent(payeeKey(user.formatPayeeName()), (key, payees) -> {
+            payees.remove(user);
+            return payees.isEmpty() ? null : payees;
+        });
+    }
+
+    private void indexAccount(Account account) {
+        accountsByCredentials.put(credentialsKey(account.getSortCode(), account.getNumber()), account);
+    }
+
+    private static String payeeKey(String payeeName) {
+        return payeeName.toUpperCase(Locale.ROOT);
+    }
+
+    private static String credentialsKey(String sortCode, String number) {
+        return sortCode + "," + number;
+    }
+
+    // SCHEDULE
+
+    private void buildSchedule() {
+        schedule = new TimingWheel<>(ORDER_TICK_MILLIS, Ledger.toMillis(Utility.now()));
+        dueOrders = new ArrayDeque<>();
+        for (Bank bank : banks) {
+            for (StandingOrder standingOrder : bank.getStandingOrders()) scheduleOrder(standingOrder);
+        }
+    }
+
+    private void scheduleOrder(StandingOrder standingOrder) {
+        LocalDateTime due = standingOrder.getNextDue();
+        if (due != null) schedule.schedule(Ledger.toMillis(due), new ScheduledOrder(standingOrder, due));
+    }
+
+    DynamicList<User> getUsers() {
+        return users;
+    }
+
+    DynamicList<Bank> getBanks() {
+        return banks;
+    }
+
+    Ledger getLedger() {
+        return ledger;
+    }
+
+    long getJournalSequence() {
+        return journalSequence;
+    }
+
+    // A database that was not loaded from shards has none on disk yet, so its first save writes them all
+    ShardStore getShards() {
+        if (shards == null) shards = new ShardStore();
+        return shards;
+    }
+
+    void setShards(ShardStore shards) {
+        this.shards = shards;
     }
 
     private DynamicList<String[]> getSecurityQuestionInfo() { // :: !!
-        DynamicList<String[]> securityQuestionData = new DynamicList<>("Security Questions Information");
+        DynamicList<String[]> securityQuestionData = new DynamicList<>("Security Questions Information", question -> question[0]);
 
         DynamicList<String> fileLines = Utility.readFileLines("src/SecurityQuestionsOptions.txt");
 
@@ -30,6 +176,102 @@ public class BankDatabase implements Serializable {
         securityQuestionInfo = getSecurityQuestionInfo();
     }
 
+    // JOURNAL
+
+    // Replays every record written since this snapshot was taken, then records all further changes to the Journal
+    public void attachJournal(Journal journal) throws IOException {
+        int replayed = journal.replay(journalSequence, mutation -> {
+            apply(mutation);
+            markDirty(mutation);
+        });
+        if (replayed > 0) Utility.printLog("Recovered %d %d from the Journal", replayed, Utility.formatPlural("Change", replayed));
+        this.journal = journal;
+    }
+
+    private void apply(Mutation mutation) {
+        if (mutation instanceof Mutation.BankAdded m) apply(m);
+        else if (mutation instanceof Mutation.UserAdded m) apply(m);
+        else if (mutation instanceof Mutation.UserRemoved m) apply(m);
+        else if (mutation instanceof Mutation.UserLockChanged m) apply(m);
+        else if (mutation instanceof Mutation.PasswordRehashed m) apply(m);
+        else if (mutation instanceof Mutation.AccountAdded m) apply(m);
+        else if (mutation instanceof Mutation.AccountStatusChanged m) apply(m);
+        else if (mutation instanceof Mutation.ConnectionAdded m) apply(m);
+        else if (mutation instanceof Mutation.TransferPosted m) {
+            Result<Transaction> result = apply(m);
+            if (!result.isSuccess()) Utility.printError("Journal transfer " + m.id() + " could not be replayed: " + result.getMessage());
+        } else if (mutation instanceof Mutation.InterestPaid m) {
+            Result<Account> result = apply(m);
+            if (!result.isSuccess()) Utility.printError("Journal interest " + m.id() + " could not be replayed: " + result.getMessage());
+        } else if (mutation instanceof Mutation.StandingOrderAdded m) apply(m);
+        else if (mutation instanceof Mutation.StandingOrderCancelled m) apply(m);
+        else if (mutation instanceof Mutation.StandingOrderRan m) apply(m);
+    }
+
+    private void record(Mutation mutation) {
+        seal(reserve(mutation));
+    }
+
+    // Gives the change its place in the Journal, for callers that hold the locks it was made under and seal it after
+    private Journal.Entry reserve(Mutation mutation) {
+        markDirty(mutation);
+        return journal == null ? null : journal.reserve(mutation);
+    }
+
+    private void seal(Journal.Entry entry) {
+        if (entry != null) journal.seal(entry);
+    }
+
+    // Which shards a change touches, so the next save rewrites only those (Ledger rows are tracked by the Ledger size)
+    private void markDirty(Mutation mutation) {
+        ShardStore shards = getShards();
+        if (mutation instanceof Mutation.BankAdded m) shards.markBank(m.sortCode());
+        else if (mutation instanceof Mutation.AccountAdded m) {
+            shards.markBank(m.sortCode());
+            shards.markDirectory();
+        } else if (mutation instanceof Mutation.AccountStatusChanged m) shards.markBank(ledger.getAccount(m.accountId()).getSortCode());
+        else if (mutation instanceof Mutation.TransferPosted m) {
+            shards.markBank(m.sortCode());
+            shards.markBank(ledger.getAccount(m.fromAccountId()).getSortCode());
+            shards.markBank(ledger.getAccount(m.toAccountId()).getSortCode());
+        } else if (mutation instanceof Mutation.InterestPaid m) shards.markBank(m.sortCode());
+        else if (mutation instanceof Mutation.StandingOrderAdded m) shards.markBank(m.sortCode());
+        else if (mutation instanceof Mutation.StandingOrderCancelled m) shards.markBank(m.sortCode());
+        else if (mutation instanceof Mutation.StandingOrderRan m) shards.markBank(m.sortCode());
+        else shards.markDirectory();
+    }
+
+    // Makes every change so far durable, writing a fresh snapshot and emptying the Journal once it holds enough records
+    public void save(KeyManager keys, int snapshotInterval) {
+        try {
+            if (journal == null || journal.size() >= snapshotInterval) snapshot(keys);
+            else journal.commit();
+        } catch (IOException e) {
+            Utility.printError(e.getMessage());
+        }
+    }
+
+    public void snapshot(KeyManager keys) throws IOException {
+        postingLock.writeLock().lock();
+        try {
+            if (journal == null) {
+                Utility.encryptAndWriteObject(this, keys);
+                return;
+            }
+            try {
+                journal.commit();
+            } catch (IOException e) {
+                // Everything the Journal holds is in the snapshot, which replaces it
+                Utility.printError(e.getMessage());
+            }
+            journalSequence = journal.getSequence();
+            // A crash before the reset leaves records the snapshot already holds, which replay skips by sequence
+            if (Utility.encryptAndWriteObject(this, keys)) journal.reset();
+        } finally {
+            postingLock.writeLock().unlock();
+        }
+    }
+
     public int getNumberOfUsers() {
         return users.size();
     }
@@ -38,26 +280,678 @@ public class BankDatabase implements Serializable {
         return banks.size();
     }
 
-    public void addBank() {
-        Utility.printTitle("ADD NEW BANK");
+    // NON-INTERACTIVE OPERATIONS
+    // Nothing below prompts for input, so batch jobs and other front-ends can call them directly
 
-        String name = Utility.getInput("Enter Bank NAME");
+    public Result<Bank> addBank(Request.NewBank request) {
+        if (request.initialBalance() < 0) return Result.failure(BankError.INVALID_AMOUNT);
 
         String sortCode;
         do {
             sortCode = Utility.randomOfLength(2) + "-" + Utility.randomOfLength(2) + "-" + Utility.randomOfLength(2);
         } while (!(isValidSortCode(sortCode) && uniqueSortCode(sortCode)));
 
-        double interestRate = Utility.getDoubleInput("Enter Bank INTEREST RATE {XX%}") / 100;
+        Mutation.BankAdded mutation = new Mutation.BankAdded(getNewId(), request.name(), sortCode, request.interestRate(), request.transactionCharge(), request.initialBalance());
+        Bank bank = apply(mutation);
+        record(mutation);
+        return Result.success(bank);
+    }
 
-        double transactionCharge = Utility.getDoubleInput("Enter Bank CHARGE PER TRANSACTION {XX%}") / 100;
+    private Bank apply(Mutation.BankAdded mutation) {
+        String name = mutation.name();
+        Bank bank = new Bank(mutation.id(), name, mutation.sortCode(), mutation.interestRate(), mutation.transactionCharge(), mutation.initialBalance(), new DynamicList<>(Utility.formatPossession(name) + " Accounts", Account::getId), ledger);
+        banks.add(bank);
+        banksBySortCode.put(bank.getSortCode(), bank);
+        return bank;
+    }
 
-        double initialBalance = Utility.getDoubleInput("Enter Bank BALANCE");
+    public Result<User> addUser(Request.NewUser request) {
+        try {
+            String username = request.username();
+            if (!username.matches(USERNAME_REGEX)) return Result.failure(BankError.INVALID_USERNAME, username);
+            if (usernameExistsInDatabase(username)) return Result.failure(BankError.USERNAME_EXISTS, username);
+            if (!new String(request.password()).matches(PASSWORD_REGEX)) return Result.failure(BankError.INVALID_PASSWORD);
+
+            if (request.securityAnswers().size() != 3) return Result.failure(BankError.INVALID_SECURITY_QUESTIONS);
+            for (Map.Entry<String, char[]> securityAnswer : request.securityAnswers().entrySet()) {
+                if (!securityQuestionInfo.containsKey(securityAnswer.getKey())) {
+                    return Result.failure(BankError.INVALID_SECURITY_QUESTIONS, securityAnswer.getKey());
+                }
+                String regex = securityQuestionInfo.get(securityAnswer.getKey())[1];
+                if (!new String(securityAnswer.getValue()).matches(regex)) return Result.failure(BankError.INVALID_ANSWER, securityAnswer.getKey());
+            }
 
-        Bank bank = new Bank(getNewId(), name, sortCode, interestRate, transactionCharge, initialBalance, new DynamicList<>(Utility.formatPossession(name) + " Accounts"), new DynamicList<>(Utility.formatPossession(name) + " Transactions"));
-        banks.add(bank);
+            if (!request.title().matches(TITLE_REGEX)) return Result.failure(BankError.INVALID_TITLE, request.title());
+            if (!(request.fullName() + " ").matches(FULL_NAME_REGEX)) return Result.failure(BankError.INVALID_FULL_NAME, request.fullName());
+
+            Password password = new Password(request.password(), 3);
+            SecurityQuestion[] securityQuestions = new SecurityQuestion[request.securityAnswers().size()];
+            int index = 0;
+            for (Map.Entry<String, char[]> securityAnswer : request.securityAnswers().entrySet()) {
+                String[] securityQuestion = securityQuestionInfo.get(securityAnswer.getKey());
+                securityQuestions[index++] = new SecurityQuestion(getNewId(), securityQuestion[0], securityQuestion[1], new Password(securityAnswer.getValue(), 5));
+            }
+
+            String id;
+            do {
+                id = getNewId();
+            } while (notUniqueId(id, users));
+
+            Mutation.UserAdded mutation = new Mutation.UserAdded(id, username, password, securityQuestions, request.title(), request.fullName(), Utility.now());
+            User user = apply(mutation);
+            record(mutation);
+            return Result.success(user);
+        } finally {
+            // Clear all memory of passwords
+            Arrays.fill(request.password(), '\0');
+            for (char[] answer : request.securityAnswers().values()) Arrays.fill(answer, '\0');
+        }
+    }
+
+    private User apply(Mutation.UserAdded mutation) {
+        DynamicList<SecurityQuestion> securityQuestions = new DynamicList<>("", SecurityQuestion::getId);
+        for (SecurityQuestion securityQuestion : mutation.securityQuestions()) securityQuestions.add(securityQuestion);
+
+        User user = new User(
+                mutation.id(),
+                mutation.username(),
+                mutation.password(),
+                securityQuestions,
+                mutation.title(),
+                mutation.fullName(),
+
+                new DynamicList<>("", Account::getId),
+                new DynamicList<>("", Connection::getId),
+                mutation.unlockTime(),
+                0
+        );
+        users.add(user);
+        indexUser(user);
+        return user;
+    }
+
+    // A single password attempt, locking the User once their attempts run out
+    public Result<User> authenticate(String username, char[] password) {
+        User user = getUser(username);
+        if (user == null) {
+            Arrays.fill(password, '\0');
+            return Result.failure(BankError.USER_NOT_FOUND, username);
+        }
+        if (!user.isUnlocked()) {
+            Arrays.fill(password, '\0');
+            return Result.failure(BankError.USER_LOCKED, user.toString());
+        }
+
+        if (user.checkPassword(password)) {
+            user.resetNumberOfTimesLocked();
+            recordLock(user);
+            recordRehashes(user);
+            return Result.success(user);
+        }
+        if (!user.checkAttempts()) {
+            user.lockUser();
+            recordLock(user);
+            user.resetPasswordAttempts();
+        }
+        return Result.failure(BankError.WRONG_PASSWORD);
+    }
+
+    public Result<User> removeUser(User user) {
+        if (!users.containsKey(user.getId())) return Result.failure(BankError.USER_NOT_FOUND, user.getUsername());
+
+        Mutation.UserRemoved mutation = new Mutation.UserRemoved(user.getId());
+        apply(mutation);
+        record(mutation);
+        return Result.success(user);
+    }
+
+    private void apply(Mutation.UserRemoved mutation) {
+        User user = users.get(mutation.userId());
+        users.remove(users.indexOf(user));
+        unindexUser(user);
+        if (loggedInUser == user) loggedInUser = null;
+    }
+
+    private void recordLock(User user) {
+        record(new Mutation.UserLockChanged(user.getId(), user.getUnlockTime(), user.getNumberOfTimesLocked()));
+    }
+
+    private void apply(Mutation.UserLockChanged mutation) {
+        users.get(mutation.userId()).setLock(mutation.unlockTime(), mutation.numberOfTimesLocked());
+    }
+
+    // Hashes upgraded while being verified, so the Journal holds them and not just the next snapshot
+    private void recordRehashes(User user) {
+        if (user.getPassword().takeRehashed()) record(new Mutation.PasswordRehashed(user.getId(), null, user.getPassword()));
+        for (SecurityQuestion securityQuestion : user.getSecurityQuestions()) {
+            if (securityQuestion.getAnswer().takeRehashed()) {
+                record(new Mutation.PasswordRehashed(user.getId(), securityQuestion.getId(), securityQuestion.getAnswer()));
+            }
+        }
+    }
+
+    private void apply(Mutation.PasswordRehashed mutation) {
+        User user = users.get(mutation.userId());
+        if (mutation.securityQuestionId() == null) user.getPassword().replaceWith(mutation.password());
+        else user.getSecurityQuestions().get(mutation.securityQuestionId()).getAnswer().replaceWith(mutation.password());
+    }
+
+    public Result<Account> addAccount(Request.NewAccount request) {
+        DynamicList<User> accountUsers = request.users();
+        AccountType type = request.type();
+        Bank bank = request.bank();
+
+        if (accountUsers.isEmpty()) return Result.failure(BankError.NOT_ENOUGH_USERS);
+        if (type.isJoint() && accountUsers.size() < 2) return Result.failure(BankError.NOT_ENOUGH_USERS);
+        if (!type.isJoint() && accountUsers.size() > 1) return Result.failure(BankError.TOO_MANY_USERS);
+        for (int i = 0; i < accountUsers.size(); i++) {
+            if (accountUsers.indexOf(accountUsers.get(i)) != i) return Result.failure(BankError.DUPLICATE_USER, accountUsers.get(i).toString());
+        }
+        if (!banks.containsKey(bank.getId())) return Result.failure(BankError.BANK_NOT_FOUND, bank.toString());
+
+        User owner = accountUsers.get(0);
+        if (owner.accountTypeExists(type.toString())) return Result.failure(BankError.ACCOUNT_TYPE_EXISTS, type.toString());
+        if (request.initialBalance() < 0) return Result.failure(BankError.INVALID_AMOUNT);
+
+        String number;
+        do {
+            number = String.valueOf(Utility.randomOfLength(8));
+        } while (!isValidAccountNumber(number) || accountNumberExists(bank, number));
+
+        String id;
+        do {
+            id = getNewId();
+        } while (ledger.isRegistered(id)); // Unique across every Bank, as the Ledger refuses a second Account with it
+
+        String[] userIds = new String[accountUsers.size()];
+        for (int i = 0; i < userIds.length; i++) userIds[i] = accountUsers.get(i).getId();
+
+        Account account;
+        Journal.Entry entry;
+        synchronized (bank) {
+            if (!bank.canAfford(request.initialBalance())) return Result.failure(BankError.BANK_CAN_NOT_AFFORD, bank.toString());
+
+            Mutation.AccountAdded mutation = new Mutation.AccountAdded(id, bank.getSortCode(), type, number, request.initialBalance(), userIds, Utility.now());
+            account = apply(mutation, bank, accountUsers);
+            // Given its place under the Bank lock so the Journal has this Bank's changes in the order they happened
+            entry = reserve(mutation);
+        }
+        seal(entry);
+        return Result.success(account);
+    }
+
+    private Account apply(Mutation.AccountAdded mutation) {
+        DynamicList<User> accountUsers = new DynamicList<>("Users", User::getId);
+        for (String userId : mutation.userIds()) accountUsers.add(users.get(userId));
+        return apply(mutation, getBank(mutation.sortCode()), accountUsers);
+    }
+
+    private Account apply(Mutation.AccountAdded mutation, Bank bank, DynamicList<User> accountUsers) {
+        // Built once, as the Account registers itself with the ledger
+        Account account = new Account(mutation.id(), mutation.type(), mutation.number(), bank.getSortCode(), mutation.initialBalance(), ledger, accountUsers, mutation.createdAt());
+        bank.addAccount(account);
+        indexAccount(account);
+        bank.changeMoney(-1 * mutation.initialBalance());
+
+        for (User user : accountUsers) {
+            user.addAccount(account);
+        }
+        return account;
+    }
+
+    private boolean accountNumberExists(Bank bank, String number) {
+        return accountsByCredentials.containsKey(credentialsKey(bank.getSortCode(), number));
+    }
+
+    public Result<Account> changeAccountStatus(Account account, Status status) {
+        if (status.equals(Status.CLOSED) && !account.isEmpty()) return Result.failure(BankError.ACCOUNT_NOT_EMPTY, account.formatName());
+
+        Mutation.AccountStatusChanged mutation = new Mutation.AccountStatusChanged(account.getId(), status);
+        apply(mutation);
+        record(mutation);
+        return Result.success(account);
+    }
+
+    private void apply(Mutation.AccountStatusChanged mutation) {
+        ledger.getAccount(mutation.accountId()).setStatus(mutation.status());
+    }
+
+    public Result<Connection> addConnection(Request.NewConnection request) {
+        String payeeName = request.payeeName();
+        if (!payeeName.matches(PAYEE_NAME_REGEX)) return Result.failure(BankError.INVALID_PAYEE_NAME, payeeName);
+        if (!checkNumberOfAccounts(payeeName)) return Result.failure(BankError.PAYEE_NOT_FOUND, payeeName);
+        if (!isValidAccountNumber(request.number())) return Result.failure(BankError.INVALID_ACCOUNT_NUMBER, request.number());
+        if (!isValidSortCode(request.sortCode())) return Result.failure(BankError.INVALID_SORT_CODE, request.sortCode());
+
+        Account toAccount = getAccountFromCredentials(payeeName, request.number(), request.sortCode());
+        if (toAccount == null) {
+            return Result.failure(BankError.ACCOUNT_NOT_FOUND, "[Payee '" + payeeName + "', Account Number '" + request.number() + "', Sort Code '" + request.sortCode() + "']");
+        }
+
+        User user = request.user();
+        if (getConnection(user, toAccount) != null) return Result.failure(BankError.CONNECTION_EXISTS, toAccount.formatName());
+
+        String reference = request.reference() == null || request.reference().isEmpty() ? null : request.reference();
+        Mutation.ConnectionAdded mutation = new Mutation.ConnectionAdded(getNewId(), user.getId(), toAccount.getId(), reference);
+        Connection connection = apply(mutation);
+        record(mutation);
+        return Result.success(connection);
+    }
+
+    private Connection apply(Mutation.ConnectionAdded mutation) {
+        User user = users.get(mutation.userId());
+        Account toAccount = ledger.getAccount(mutation.toAccountId());
+
+        Connection connection;
+        if (mutation.reference() == null) connection = new Connection(mutation.id(), user, toAccount);
+        else connection = new Connection(mutation.id(), user, toAccount, mutation.reference());
+
+        user.addConnection(connection);
+        return connection;
+    }
+
+    public Result<Transaction> transfer(Request.Transfer request) {
+        Account fromAccount = request.fromAccount();
+        Account toAccount = request.toAccount();
+        if (fromAccount == toAccount) return Result.failure(BankError.SAME_ACCOUNT);
+        if (request.amount() < 0) return Result.failure(BankError.INVALID_AMOUNT);
+
+        Bank bank = getBank(fromAccount);
+        if (bank == null) return Result.failure(BankError.BANK_NOT_FOUND, fromAccount.formatName());
+
+        String reference = request.reference() == null ? "" : request.reference();
+        return transfer(bank, fromAccount, toAccount, request.amount(), getCharge(bank, request.amount(), request.external()), reference);
+    }
+
+    // The one charge rule for every transfer, external transfers pay the Bank's transaction charge
+    private static long getCharge(Bank bank, long amount, Boolean external) {
+        return external ? bank.getTransactionCharge(amount) : 0;
+    }
+
+    private Result<Transaction> transfer(Bank bank, Account fromAccount, Account toAccount, long amount, long charge, String reference) {
+        return transfer(bank, fromAccount, toAccount, amount, charge, reference, getNewId(), Utility.now());
+    }
+
+    private Result<Transaction> apply(Mutation.TransferPosted mutation) {
+        String reference = mutation.reference() == null ? "" : mutation.reference();
+        return transfer(getBank(mutation.sortCode()), ledger.getAccount(mutation.fromAccountId()), ledger.getAccount(mutation.toAccountId()), mutation.amount(), mutation.charge(), reference, mutation.id(), mutation.timeStamp());
+    }
+
+    // Safe to call from many threads at once. The posting lock is taken shared, then both Accounts are locked in
+    // ordinal order, so transfers between other Accounts run alongside. The Bank and the Ledger are only locked for
+    // their own step, and the Journal record is sealed once the Accounts are unlocked. Nothing is changed on failure
+    private Result<Transaction> transfer(Bank bank, Account fromAccount, Account toAccount, long amount, long charge, String reference, String id, LocalDateTime timeStamp) {
+        postingLock.readLock().lock();
+        try {
+            return lockedTransfer(bank, fromAccount, toAccount, amount, charge, reference, id, timeStamp);
+        } finally {
+            postingLock.readLock().unlock();
+        }
+    }
+
+    private Result<Transaction> lockedTransfer(Bank bank, Account fromAccount, Account toAccount, long amount, long charge, String reference, String id, LocalDateTime timeStamp) {
+        Account first = fromAccount.getOrdinal() < toAccount.getOrdinal() ? fromAccount : toAccount;
+        Account second = first == fromAccount ? toAccount : fromAccount;
+
+        Journal.Entry entry = null;
+        Transaction transaction;
+        synchronized (first) {
+            synchronized (second) {
+                // Checked under the lock, as another transfer may have spent the money
+                if (!fromAccount.canAfford(amount + charge)) {
+                    return Result.failure(BankError.INSUFFICIENT_FUNDS, Utility.formatMoney(amount) + " + " + Utility.formatMoney(charge) + " (CHARGE) = " + Utility.formatMoney(amount + charge));
+                }
+
+                int offset = ledger.post(id, fromAccount, toAccount, amount, charge, timeStamp, reference);
+                long fromAmount = ledger.getAmount(offset, fromAccount.getOrdinal());
+                long toAmount = ledger.getAmount(offset, toAccount.getOrdinal());
+
+                fromAccount.adjustBalance(fromAmount);
+                toAccount.adjustBalance(toAmount);
+                fromAccount.addTransaction(offset);
+                toAccount.addTransaction(offset);
+
+                // The Bank last, as its step is the only one that can not be undone once others have posted after it
+                boolean posted = fromAccount.checkBalance() && toAccount.checkBalance();
+                if (posted) {
+                    synchronized (bank) {
+                        posted = bank.post(offset, charge, 0);
+                        // Given its place under the Account locks and the Bank's, so the Journal has the transfers of
+                        // each in the order they happened. With the time the Ledger stored, so a replay puts the row at
+                        // the same point in time order
+                        if (posted) entry = reserve(new Mutation.TransferPosted(id, bank.getSortCode(), fromAccount.getId(), toAccount.getId(), amount, charge, ledger.getTime(offset), reference.isEmpty() ? null : reference));
+                    }
+                }
+                if (!posted) {
+                    // Roll back in reverse, still under both Account locks so no one sees the half-done transfer
+                    toAccount.removeTransaction(offset);
+                    fromAccount.removeTransaction(offset);
+                    toAccount.adjustBalance(-1 * toAmount);
+                    fromAccount.adjustBalance(-1 * fromAmount);
+                    return Result.failure(BankError.TRANSFER_FAILED);
+                }
+                transaction = ledger.get(offset);
+            }
+        }
+        seal(entry);
+        return Result.success(transaction);
+    }
+
+    // Pays every ACTIVE Account interest at its AccountType's rate on its balance, for each day since it was last paid
+    // up to and including day, out of its Bank. Accounts are split into slices within their Bank and the slices run
+    // across every core, the Bank and the Ledger are only locked for their own step of each payment
+    // Each payment moves the Account's paid to day along with it, so a run repeated for the same day (after a crash)
+    // only pays what is still owed. Less than a penny is left to build up over the following days
+    public Result<InterestReport> accrueInterest(LocalDate day) {
+        long start = System.nanoTime();
+        getShards(); // Made before the slices race to make it
+
+        List<CompletableFuture<InterestReport>> slices = new ArrayList<>();
+        for (Bank bank : banks) {
+            DynamicList<Account> accounts = bank.getAccounts();
+            for (int first = 0; first < accounts.size(); first += INTEREST_SLICE) {
+                int from = first;
+                int to = Math.min(accounts.size(), first + INTEREST_SLICE);
+                slices.add(CompletableFuture.supplyAsync(() -> accrueInterest(bank, accounts, from, to, day)));
+            }
+        }
+
+        InterestReport report = new InterestReport(day);
+        try {
+            for (CompletableFuture<InterestReport> slice : slices) report.add(slice.join());
+        } catch (CompletionException e) {
+            // Every payment made before the failure stands, running again pays the rest
+            return Result.failure(BankError.INTEREST_FAILED, e.getCause().getMessage());
+        }
+        report.setMillis((System.nanoTime() - start) / 1_000_000);
+        return Result.success(report);
+    }
+
+    private InterestReport accrueInterest(Bank bank, DynamicList<Account> accounts, int from, int to, LocalDate day) {
+        InterestReport report = new InterestReport(day);
+        for (int i = from; i < to; i++) {
+            Account account = accounts.get(i);
+            postingLock.readLock().lock();
+            try {
+                accrueAccountInterest(bank, account, day, report);
+            } finally {
+                postingLock.readLock().unlock();
+            }
+        }
+        return report;
+    }
+
+    // The caller holds the posting lock
+    private void accrueAccountInterest(Bank bank, Account account, LocalDate day, InterestReport report) {
+        synchronized (account) {
+            if (account.getStatus() != Status.ACTIVE) {
+                report.addSkipped();
+                return;
+            }
+            LocalDate paidTo = account.getInterestPaidTo() == null ? account.getCreatedAt().toLocalDate() : account.getInterestPaidTo();
+            long days = ChronoUnit.DAYS.between(paidTo, day);
+            long interest = days > 0 ? Utility.applyDailyRate(account.getBalance(), account.getType().getInterestRate(), days) : 0;
+            if (interest <= 0) {
+                report.addSkipped();
+                return;
+            }
+
+            if (payInterest(bank, account, interest, day, getNewId(), Utility.now()).isSuccess()) report.addPaid(interest);
+            else report.addUnpaid();
+        }
+    }
+
+    private Result<Account> apply(Mutation.InterestPaid mutation) {
+        return payInterest(getBank(mutation.sortCode()), ledger.getAccount(mutation.accountId()), mutation.amount(), mutation.paidTo(), mutation.id(), mutation.timeStamp());
+    }
+
+    // Locks the Account, the same as a transfer, inside the posting lock when it can run alongside a snapshot. The
+    // money is reserved from the Bank up front, so the Bank is only locked for that and for posting it, and payments
+    // from the same Bank run alongside. The Journal record is given its place under the Bank lock, as a transfer's
+    // is, and sealed once the Account is unlocked. Nothing is changed on failure
+    private Result<Account> payInterest(Bank bank, Account account, long amount, LocalDate paidTo, String id, LocalDateTime timeStamp) {
+        Journal.Entry entry = null;
+        synchronized (account) {
+            if (!bank.reserve(amount)) return Result.failure(BankError.BANK_CAN_NOT_AFFORD, bank.toString());
+
+            int offset = ledger.post(id, null, account, amount, 0, timeStamp, "Interest to " + paidTo);
+            account.adjustBalance(amount);
+            account.addTransaction(offset);
+
+            boolean posted = account.checkBalance();
+            if (posted) {
+                synchronized (bank) {
+                    posted = bank.post(offset, -1 * amount, amount);
+                    if (posted) {
+                        account.setInterestPaidTo(paidTo);
+                        entry = reserve(new Mutation.InterestPaid(id, bank.getSortCode(), account.getId(), amount, paidTo, ledger.getTime(offset)));
+                    }
+                }
+            }
+            if (!posted) {
+                account.removeTransaction(offset);
+                account.adjustBalance(-1 * amount);
+                bank.release(amount);
+                return Result.failure(BankError.TRANSFER_FAILED);
+            }
+        }
+        seal(entry);
+        return Result.success(account);
+    }
 
-        Utility.printSuccess("BANK SUCCESSFULLY ADDED: " + bank);
+    // Pays request.connection() from request.fromAccount() on request.firstDue(), then every request.interval() after it
+    // until cancelled. Each payment is an external transfer, charged like one made from the menu
+    public Result<StandingOrder> addStandingOrder(Request.NewStandingOrder request) {
+        User user = request.user();
+        Account fromAccount = request.fromAccount();
+        Connection connection = request.connection();
+        if (!users.containsKey(user.getId())) return Result.failure(BankError.USER_NOT_FOUND, user.getUsername());
+        if (!user.getAccounts().containsKey(fromAccount.getId())) return Result.failure(BankError.ACCOUNT_NOT_FOUND, fromAccount.formatName());
+        if (!user.getConnectedAccounts().containsKey(connection.getId())) return Result.failure(BankError.CONNECTION_NOT_FOUND, connection.getToAccount().formatName());
+        if (connection.getToAccount() == fromAccount) return Result.failure(BankError.SAME_ACCOUNT);
+        if (request.amount() <= 0) return Result.failure(BankError.INVALID_AMOUNT);
+
+        Period interval = request.interval();
+        LocalDateTime firstDue = request.firstDue();
+        if (firstDue == null || firstDue.toLocalDate().isBefore(Utility.now().toLocalDate())) return Result.failure(BankError.INVALID_SCHEDULE);
+        if (interval != null && (interval.isZero() || interval.isNegative())) return Result.failure(BankError.INVALID_SCHEDULE, interval.toString());
+
+        Bank bank = getBank(fromAccount);
+        if (bank == null) return Result.failure(BankError.BANK_NOT_FOUND, fromAccount.formatName());
+
+        String reference = request.reference() == null || request.reference().isEmpty() ? null : request.reference();
+        // To the millisecond the Journal keeps, so a replay has the same due dates
+        Mutation.StandingOrderAdded mutation = new Mutation.StandingOrderAdded(getNewId(), bank.getSortCode(), user.getId(), fromAccount.getId(), connection.getId(), request.amount(), reference, interval, firstDue.truncatedTo(ChronoUnit.MILLIS));
+        StandingOrder standingOrder = apply(mutation);
+        record(mutation);
+        return Result.success(standingOrder);
+    }
+
+    private StandingOrder apply(Mutation.StandingOrderAdded mutation) {
+        User user = users.get(mutation.userId());
+        StandingOrder standingOrder = new StandingOrder(mutation.id(), user, ledger.getAccount(mutation.fromAccountId()), user.getConnectedAccounts().get(mutation.connectionId()),
+                mutation.amount(), mutation.reference(), mutation.interval(), mutation.firstDue(), 0);
+        getBank(mutation.sortCode()).addStandingOrder(standingOrder);
+        scheduleOrder(standingOrder);
+        return standingOrder;
+    }
+
+    // Left in the wheel until it comes due, where it is passed over
+    public Result<StandingOrder> cancelStandingOrder(StandingOrder standingOrder) {
+        Bank bank = getBank(standingOrder.getFromAccount());
+        if (bank == null || bank.getStandingOrder(standingOrder.getId()) != standingOrder) return Result.failure(BankError.STANDING_ORDER_NOT_FOUND);
+
+        Mutation.StandingOrderCancelled mutation = new Mutation.StandingOrderCancelled(standingOrder.getId(), bank.getSortCode());
+        apply(mutation);
+        record(mutation);
+        return Result.success(standingOrder);
+    }
+
+    private void apply(Mutation.StandingOrderCancelled mutation) {
+        Bank bank = getBank(mutation.sortCode());
+        StandingOrder standingOrder = bank.getStandingOrder(mutation.id());
+        if (standingOrder != null) bank.removeStandingOrder(standingOrder);
+    }
+
+    // Every standing order the User has set up, from the Banks of their Accounts
+    public DynamicList<StandingOrder> getStandingOrders(User user) {
+        DynamicList<StandingOrder> standingOrders = new DynamicList<>("Standing Orders", StandingOrder::getId);
+        Set<Bank> searched = new HashSet<>();
+        for (Account account : user.getAccounts()) {
+            Bank bank = getBank(account);
+            if (bank == null || !searched.add(bank)) continue;
+            for (StandingOrder standingOrder : bank.getStandingOrders()) {
+                if (standingOrder.getUser() == user) standingOrders.add(standingOrder);
+            }
+        }
+        return standingOrders;
+    }
+
+    // Pays every standing order due by now, Main calls it on the menu thread between actions, so an order never
+    // runs alongside a change made from the menu
+    // Orders wait in the TimingWheel, so those not yet due cost nothing here however many there are. Due orders are
+    // paid ORDER_BATCH at a time with a single Journal commit per batch
+    // Each order is moved on before it is paid, a crash in between misses that payment rather than making it twice
+    // Orders of a removed User are cancelled as they come due
+    public OrderRun runDueOrders(LocalDateTime now) {
+        dueOrders.addAll(schedule.advance(Ledger.toMillis(now)));
+
+        int paid = 0, missed = 0;
+        while (!dueOrders.isEmpty()) {
+            for (int i = 0; i < ORDER_BATCH && !dueOrders.isEmpty(); i++) {
+                Result<Transaction> result = runOrder(dueOrders.poll());
+                if (result == null) continue;
+                if (result.isSuccess()) paid++;
+                else missed++;
+            }
+            try {
+                if (journal != null) journal.commit();
+            } catch (IOException e) {
+                Utility.printError(e.getMessage());
+            }
+        }
+        return new OrderRun(paid, missed);
+    }
+
+    // null when the order has been cancelled or moved on since it was scheduled
+    private Result<Transaction> runOrder(ScheduledOrder scheduled) {
+        StandingOrder standingOrder = scheduled.standingOrder();
+        Bank bank = getBank(standingOrder.getFromAccount());
+        if (bank == null || bank.getStandingOrder(standingOrder.getId()) != standingOrder || !scheduled.due().equals(standingOrder.getNextDue())) return null;
+
+        User user = standingOrder.getUser();
+        if (!users.containsKey(user.getId())) {
+            Mutation.StandingOrderCancelled mutation = new Mutation.StandingOrderCancelled(standingOrder.getId(), bank.getSortCode());
+            apply(mutation);
+            record(mutation);
+            return Result.failure(BankError.USER_NOT_FOUND, user.getUsername());
+        }
+
+        Mutation.StandingOrderRan mutation = new Mutation.StandingOrderRan(standingOrder.getId(), bank.getSortCode());
+        apply(mutation);
+        record(mutation);
+
+        Account fromAccount = standingOrder.getFromAccount();
+        if (fromAccount.getStatus() != Status.ACTIVE) return Result.failure(BankError.ACCOUNT_NOT_ACTIVE, fromAccount.formatName());
+        return transfer(new Request.Transfer(fromAccount, standingOrder.getConnection().getToAccount(), standingOrder.getAmount(), standingOrder.getReference(), true));
+    }
+
+    private void apply(Mutation.StandingOrderRan mutation) {
+        Bank bank = getBank(mutation.sortCode());
+        StandingOrder standingOrder = bank.getStandingOrder(mutation.id());
+        standingOrder.addRun();
+        if (standingOrder.getNextDue() == null) bank.removeStandingOrder(standingOrder);
+        else scheduleOrder(standingOrder);
+    }
+
+    // Applies every row of a transfer file, reading it a line at a time so any size of file can be settled
+    // Rows are checked with the same rules as a transfer made from the menu, failed rows go to the reject file
+    // with their line number and reason, and the run carries on
+    // Nothing is written to disk per row, the caller saves the database once the whole batch has been applied
+    // Row format: FROM SORT CODE,FROM ACCOUNT NUMBER,TO SORT CODE,TO ACCOUNT NUMBER,AMOUNT,REFERENCE
+    public Result<BatchReport> transferBatch(String fileName) {
+        String rejectFileName = fileName + ".rejected.csv";
+        BatchReport report = new BatchReport(fileName, rejectFileName);
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(fileName));
+             BufferedWriter rejects = new BufferedWriter(new FileWriter(rejectFileName))) {
+
+            rejects.write("LINE,REASON,ROW");
+            rejects.newLine();
+
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.startsWith("FROM"))) continue; // Header or gap
+
+                String reason = applyBatchRow(line, report);
+                if (reason != null) {
+                    report.addRejected();
+                    rejects.write(lineNumber + "," + reason + "," + line);
+                    rejects.newLine();
+                }
+            }
+        } catch (IOException e) {
+            return Result.failure(BankError.BATCH_FAILED, e.getMessage() + " (" + report + ")");
+        }
+        return Result.success(report);
+    }
+
+    // Returns why the row was rejected, or null once it has been applied
+    private String applyBatchRow(String line, BatchReport report) {
+        // The reference is last so it may hold commas
+        String[] fields = line.split(",", 6);
+        if (fields.length < 5) return "Expected at least 5 fields";
+
+        for (int i = 0; i < Math.min(fields.length, 5); i++) fields[i] = fields[i].trim();
+        if (!isValidSortCode(fields[0]) || !isValidSortCode(fields[2])) return BankError.INVALID_SORT_CODE.toString();
+        if (!isValidAccountNumber(fields[1]) || !isValidAccountNumber(fields[3])) return BankError.INVALID_ACCOUNT_NUMBER.toString();
+        if (!Utility.isMoney(fields[4])) return BankError.INVALID_AMOUNT.toString();
+
+        Account fromAccount = getAccount(fields[0], fields[1]);
+        Account toAccount = getAccount(fields[2], fields[3]);
+        if (fromAccount == null || toAccount == null) return BankError.ACCOUNT_NOT_FOUND.toString();
+        if (fromAccount == toAccount) return BankError.SAME_ACCOUNT.toString();
+
+        // External unless both Accounts share a User, as between a User's own Accounts from the menu
+        long amount = Utility.parseMoney(fields[4]);
+        String reference = fields.length == 6 ? fields[5].trim() : "";
+        Result<Transaction> result = transfer(new Request.Transfer(fromAccount, toAccount, amount, reference, !fromAccount.sharesUser(toAccount)));
+        if (!result.isSuccess()) return result.getError().toString();
+
+        report.addApplied(amount, result.getValue().getCharge());
+        return null;
+    }
+
+    public User getUser(String username) {
+        return usersByUsername.get(username);
+    }
+
+    public Bank getBank(String sortCode) {
+        return banksBySortCode.get(sortCode);
+    }
+
+    public Account getAccount(String sortCode, String number) {
+        return accountsByCredentials.get(credentialsKey(sortCode, number));
+    }
+
+    // CONSOLE OPERATIONS
+
+    public void addBank() {
+        Utility.printTitle("ADD NEW BANK");
+
+        String name = Utility.getInput("Enter Bank NAME");
+
+        int interestRate = Utility.getRateInput("Enter Bank INTEREST RATE {XX%}");
+
+        int transactionCharge = Utility.getRateInput("Enter Bank CHARGE PER TRANSACTION {XX%}");
+
+        long initialBalance = Utility.getMoneyInput("Enter Bank BALANCE");
+
+        Result<Bank> result = addBank(new Request.NewBank(name, interestRate, transactionCharge, initialBalance));
+        if (result.isSuccess()) Utility.printSuccess("BANK SUCCESSFULLY ADDED: " + result.getValue());
+        else Utility.printError(result.getMessage());
     }
 
     public void addUser() {
@@ -67,66 +961,44 @@ public class BankDatabase implements Serializable {
         Utility.printChapter("USERNAME");
         String username = Utility.getInput("Enter Username {3-20 Characters}");
         if (!username.isEmpty()) {
-            if (username.matches("^[a-zA-Z0-9_]{3,20}$")) {
+            if (username.matches(USERNAME_REGEX)) {
                 if (!usernameExistsInDatabase(username)) {
 
                     Utility.printChapter("PASSWORD");
-                    Password validPassword = newPassword("Password", "^(?=.*[0-9])(?=.*[A-Z])(?=.*[!@#$%^&*()-_=+{};:',.<>?/]).{8,}$", 3);
+                    char[] password = newPassword("Password", PASSWORD_REGEX);
 
                     Utility.printChapter("SECURITY QUESTIONS");
-                    DynamicList<SecurityQuestion> securityQuestions = new DynamicList<>("");
-                    DynamicList<String[]> usedSecurityQuestionOutputs = new DynamicList<>("");
+                    Map<String, char[]> securityAnswers = new LinkedHashMap<>();
 
                     do {
                         DynamicList<String> securityQuestionsOutputs = new DynamicList<>("Security Questions");
                         for (String[] securityQuestion : securityQuestionInfo) {
-                            if (!usedSecurityQuestionOutputs.contains(securityQuestion))
+                            if (!securityAnswers.containsKey(securityQuestion[0]))
                                 securityQuestionsOutputs.add(securityQuestion[0]);
                         }
 
-                        int choice = Utility.getIntInput("Choose a Security Question " + (securityQuestions.size() + 1) + "/3", securityQuestionsOutputs);
-                        String[] chosenSecurityQuestion = new String[2];
-                        for (String[] s : securityQuestionInfo) {
-                            if (s[0].equals(securityQuestionsOutputs.get(choice))) chosenSecurityQuestion = s;
-                        }
+                        int choice = Utility.getIntInput("Choose a Security Question " + (securityAnswers.size() + 1) + "/3", securityQuestionsOutputs);
+                        String[] chosenSecurityQuestion = securityQuestionInfo.get(securityQuestionsOutputs.get(choice));
 
-                        Password answer = newPassword(chosenSecurityQuestion[0], chosenSecurityQuestion[1], 5);
-                        SecurityQuestion securityQuestion = new SecurityQuestion(getNewId(), chosenSecurityQuestion[0], chosenSecurityQuestion[1], answer);
-                        securityQuestions.add(securityQuestion);
-                        usedSecurityQuestionOutputs.add(chosenSecurityQuestion);
-                    } while (securityQuestions.size() < 3);
+                        securityAnswers.put(chosenSecurityQuestion[0], newPassword(chosenSecurityQuestion[0], chosenSecurityQuestion[1]));
+                    } while (securityAnswers.size() < 3);
 
                     Utility.printChapter("INFORMATION");
                     String title;
                     do {
                         title = Utility.getInput("Enter Honorific");
-                    } while (!title.matches("^[a-zA-Z ]{2,10}$"));
+                    } while (!title.matches(TITLE_REGEX));
 
                     String fullName;
                     do {
                         fullName = Utility.getInput("Enter Full Name");
-                    } while (!(fullName + " ").matches("^([A-Z][a-z]+ ){2,}$"));
+                    } while (!(fullName + " ").matches(FULL_NAME_REGEX));
 
-                    User user;
-                    do {
-                        user = new User(
-                                getNewId(),
-                                username,
-                                validPassword,
-                                securityQuestions,
-                                title,
-                                fullName,
-
-                                new DynamicList<>(""),
-                                new DynamicList<>(""),
-                                Utility.now(),
-                                0
-                        );
-                    } while (notUniqueId(user.getId(), users));
-
-                    valid = true;
-                    users.add(user);
-                    Utility.printSuccess("USER SUCCESSFULLY ADDED: " + user);
+                    Result<User> result = addUser(new Request.NewUser(username, password, securityAnswers, title, fullName));
+                    if (result.isSuccess()) {
+                        valid = true;
+                        Utility.printSuccess("USER SUCCESSFULLY ADDED: " + result.getValue());
+                    } else Utility.printError(result.getMessage());
 
                 } else Utility.printLog("USERNAME already exists");
             } else Utility.printLog("USERNAME incorrectly formatted!");
@@ -136,13 +1008,11 @@ public class BankDatabase implements Serializable {
     }
 
     private boolean usernameExistsInDatabase(String username) {
-        for (User user : users) {
-            if (user.getUsername().equals(username)) return true;
-        }
-        return false;
+        return getUser(username) != null;
     }
 
-    private Password newPassword(String output, String regex, int maxAttempts) {
+    // Returns the confirmed password, which the caller must clear
+    private char[] newPassword(String output, String regex) {
         char[] tempPassword = Utility.getPassword("Enter " + output);
         if (new String(tempPassword).matches(regex)) {
             char[] confirmPassword = Utility.getPassword("Confirm " + output);
@@ -153,19 +1023,17 @@ public class BankDatabase implements Serializable {
                 // Clear all memory of passwords
                 Arrays.fill(tempPassword, '\0');
                 Arrays.fill(confirmPassword, '\0');
-                return newPassword(output, regex, maxAttempts);
+                return newPassword(output, regex);
             } else {
-                Password password = new Password(tempPassword, maxAttempts);
-                // Clear all memory of passwords
-                Arrays.fill(tempPassword, '\0');
+                // Clear all memory of the confirmation
                 Arrays.fill(confirmPassword, '\0');
-                return password;
+                return tempPassword;
             }
         } else {
             Utility.printLog("'%d' Incorrectly formatted!", output);
             // Clear all memory of password
             Arrays.fill(tempPassword, '\0');
-            return newPassword(output, regex, maxAttempts);
+            return newPassword(output, regex);
         }
     }
 
@@ -174,8 +1042,9 @@ public class BankDatabase implements Serializable {
 
         User user = users.get(Utility.getIntInput("Which user?", users));
         if (Utility.getIntInput("Are you sure?", new DynamicList<>("Delete " + user + "?", new String[] {"Yes", "No"})) == 0) {
-            users.remove(users.indexOf(user));
-            Utility.printSuccess(user + " has been removed!");
+            Result<User> result = removeUser(user);
+            if (result.isSuccess()) Utility.printSuccess(user + " has been removed!");
+            else Utility.printError(result.getMessage());
         } else {
             Utility.printLog("Cancelled!");
         }
@@ -195,26 +1064,23 @@ public class BankDatabase implements Serializable {
     }
 
     private User getUserFromCredentials() {
-        User targetUser = null;
-
         String username = Utility.getInput("Enter username");
         if (!username.isEmpty()) {
-            for (User user : users) {
-                if (username.equals(user.getUsername())) {
-                    targetUser = user;
-                    break;
-                }
-            }
+            User targetUser = getUser(username);
 
             if (targetUser != null) {
                 if (targetUser.isUnlocked()) {
                     targetUser.resetPasswordAttempts();
-                    if (targetUser.checkASecurityQuestion()) {
+                    boolean answered = targetUser.checkASecurityQuestion();
+                    recordRehashes(targetUser);
+                    if (answered) {
                         while (targetUser.checkAttempts()) {
                             char[] attemptedPassword = Utility.getPassword("Enter Password");
 
                             if (targetUser.checkPassword(attemptedPassword)) {
                                 targetUser.resetNumberOfTimesLocked();
+                                recordLock(targetUser);
+                                recordRehashes(targetUser);
                                 return targetUser;
                             } else {
                                 Utility.printLog("Password Incorrect!");
@@ -224,6 +1090,7 @@ public class BankDatabase implements Serializable {
                         }
                         // Answer Incorrectly Too Many Times:
                         targetUser.lockUser();
+                        recordLock(targetUser);
                         return null;
                     } else Utility.printLog("Security Question Failed!");
                 } else {
@@ -248,66 +1115,36 @@ public class BankDatabase implements Serializable {
         DynamicList<AccountType> types = AccountType.getAllAccountTypes();
         AccountType type = types.get(Utility.getIntInput("Enter Account Type", types));
 
-        DynamicList<User> accountUsers = new DynamicList<>("Users");
-        accountUsers.add(loggedInUser);
-        if (type.isJoint()) {
-            Utility.printChapter("ADD ADDITIONAL USERS:");
-            do {
-                User newUser = getUserFromCredentials();
-                if (newUser != null) {
-                    if (!accountUsers.contains(newUser)) {
-                        accountUsers.add(newUser);
-                    } else Utility.printError("User '" + newUser + "' is already a user in the Account");
-                }
-            } while (accountUsers.size() < 2 || Utility.getIntInput("Add Another User?", new DynamicList<>("Options", new String[]{"Yes", "No"})) == 0);
-        }
-
-        String number = String.valueOf(Utility.randomOfLength(8));
-        if (isValidAccountNumber(number)) {
-            if (!accountExistsInDatabase(number)) {
-
-                Bank bank = banks.get(Utility.getIntInput("Enter Bank", banks));
-                String sortCode = bank.getSortCode();
-
-
-                if (!loggedInUser.accountTypeExists(type.toString())) {
-
-                    double initialBalance;
-                    do {
-                        initialBalance = Utility.getDoubleInput("Enter Initial Balance");
-                    } while (!bank.canAfford(initialBalance));
-
-                    Account account;
-                    do {
-                        account = new Account(getNewId(), type, number, sortCode, initialBalance, new DynamicList<>(""), accountUsers, Utility.now());
-                    } while (notUniqueId(account.getId(), loggedInUser.getAccounts()));
-
-                    valid = true;
-
-                    for (User user : accountUsers) {
-                        user.addAccount(account);
+        if (!loggedInUser.accountTypeExists(type.toString())) {
+            DynamicList<User> accountUsers = new DynamicList<>("Users", User::getId);
+            accountUsers.add(loggedInUser);
+            if (type.isJoint()) {
+                Utility.printChapter("ADD ADDITIONAL USERS:");
+                do {
+                    User newUser = getUserFromCredentials();
+                    if (newUser != null) {
+                        if (!accountUsers.contains(newUser)) {
+                            accountUsers.add(newUser);
+                        } else Utility.printError("User '" + newUser + "' is already a user in the Account");
                     }
+                } while (accountUsers.size() < 2 || Utility.getIntInput("Add Another User?", new DynamicList<>("Options", new String[]{"Yes", "No"})) == 0);
+            }
 
-                    bank.addAccount(account);
-                    bank.changeMoney(-1 * initialBalance);
+            Bank bank = banks.get(Utility.getIntInput("Enter Bank", banks));
 
-                    if (bank.checkBalance()) {
-                        Utility.printSuccess("ACCOUNT SUCCESSFULLY CREATED: " + account);
-                    } else {
-                        Utility.printError("Account addition error!");
-                    }
+            long initialBalance;
+            do {
+                initialBalance = Utility.getMoneyInput("Enter Initial Balance");
+            } while (!bank.canAfford(initialBalance));
 
-                } else Utility.printLog("You already have an Account with type '%d'!", type);
-            } else Utility.printError("Account NUMBER Invalid!");
-        } else Utility.printError("Account NUMBER incorrectly formatted!");
-        if (!valid) addAccount();
-    }
+            Result<Account> result = addAccount(new Request.NewAccount(accountUsers, type, bank, initialBalance));
+            if (result.isSuccess()) {
+                valid = true;
+                Utility.printSuccess("ACCOUNT SUCCESSFULLY CREATED: " + result.getValue());
+            } else Utility.printError(result.getMessage());
 
-    private boolean accountExistsInDatabase(String number) {
-        for (Account account : loggedInUser.getAccounts()) {
-            if (account.checkNumber(number)) return true;
-        }
-        return false;
+        } else Utility.printLog("You already have an Account with type '%d'!", type);
+        if (!valid) addAccount();
     }
 
     public void viewUser() {
@@ -331,9 +1168,8 @@ public class BankDatabase implements Serializable {
         DynamicList<Status> statuses = Status.getAllStatuses();
         Status status = statuses.get(Utility.getIntInput("Enter new STATUS for " + targetAccount, statuses));
 
-        if (!status.equals(Status.CLOSED) || targetAccount.isEmpty()) {
-            targetAccount.setStatus(status);
-        } else Utility.printError("Account '" + targetAccount + "' is not empty!");
+        Result<Account> result = changeAccountStatus(targetAccount, status);
+        if (!result.isSuccess()) Utility.printError(result.getMessage());
     }
 
     public void makeInternalTransaction() {
@@ -385,19 +1221,66 @@ public class BankDatabase implements Serializable {
             }
         }
 
-        Connection connection = getConnection(toAccount);
+        Connection connection = getConnection(loggedInUser, toAccount);
         if (connection != null) {
             String reference = Utility.getInput("Enter REFERENCE [Default: '" + connection.getReference() + "']");
 
-            if (loggedInUser.checkASecurityQuestion()) {
+            boolean answered = loggedInUser.checkASecurityQuestion();
+            recordRehashes(loggedInUser);
+            if (answered) {
                 if (reference.isEmpty()) performTransfer(fromAccount, toAccount, connection.getReference(), true);
                 else performTransfer(fromAccount, toAccount, reference, true);
-            } Utility.printLog("Security Question Failed!");
+            } else Utility.printLog("Security Question Failed!");
         } else Utility.printError("No Connection Found! Between " + loggedInUser + " and " + toAccount + "!");
     }
 
-    private Connection getConnection(Account account) {
-        for (Connection connection : loggedInUser.getConnectedAccounts()) {
+    public void setUpStandingOrder() {
+        Utility.printTitle("SET UP STANDING ORDER");
+        DynamicList<Connection> connectedAccounts = loggedInUser.getConnectedAccounts();
+        DynamicList<Account> accounts = loggedInUser.getAccounts();
+
+        Account fromAccount = accounts.get(Utility.getIntInput("Enter FROM Account", accounts));
+
+        Connection connection;
+        if (connectedAccounts.isEmpty()) connection = getConnection(loggedInUser, addConnectedAccount(fromAccount));
+        else connection = connectedAccounts.get(Utility.getIntInput("Enter TO Account", connectedAccounts));
+
+        long amount = Utility.getMoneyInput("Enter AMOUNT");
+        String reference = Utility.getInput("Enter REFERENCE [Default: '" + connection.getReference() + "']");
+
+        DynamicList<String> frequencies = new DynamicList<>("Frequencies", new String[] {"Once", "Weekly", "Monthly", "Yearly"});
+        Period[] intervals = {null, Period.ofWeeks(1), Period.ofMonths(1), Period.ofYears(1)};
+        Period interval = intervals[Utility.getIntInput("Enter FREQUENCY", frequencies)];
+
+        // Today pays straight away, a later day pays as it starts
+        int days = Utility.getWholeNumberInput("Enter DAYS until the first payment", 3650);
+        LocalDateTime firstDue = days == 0 ? Utility.now() : Utility.now().toLocalDate().plusDays(days).atStartOfDay();
+
+        boolean answered = loggedInUser.checkASecurityQuestion();
+        recordRehashes(loggedInUser);
+        if (answered) {
+            Result<StandingOrder> result = addStandingOrder(new Request.NewStandingOrder(loggedInUser, fromAccount, connection, amount, reference, firstDue, interval));
+            if (result.isSuccess()) Utility.printSuccess("STANDING ORDER SUCCESSFULLY SET UP: " + result.getValue());
+            else Utility.printError(result.getMessage());
+        } else Utility.printLog("Security Question Failed!");
+    }
+
+    public void cancelStandingOrder() {
+        Utility.printTitle("CANCEL STANDING ORDER");
+
+        DynamicList<StandingOrder> standingOrders = getStandingOrders(loggedInUser);
+        if (!standingOrders.isEmpty()) {
+            StandingOrder standingOrder = standingOrders.get(Utility.getIntInput("Which Standing Order?", standingOrders));
+            if (Utility.getIntInput("Are you sure?", new DynamicList<>("Cancel " + standingOrder + "?", new String[] {"Yes", "No"})) == 0) {
+                Result<StandingOrder> result = cancelStandingOrder(standingOrder);
+                if (result.isSuccess()) Utility.printSuccess("STANDING ORDER CANCELLED: " + standingOrder);
+                else Utility.printError(result.getMessage());
+            } else Utility.printLog("Cancelled!");
+        } else Utility.printLog("No Standing Orders!");
+    }
+
+    private Connection getConnection(User user, Account account) {
+        for (Connection connection : user.getConnectedAccounts()) {
             if (connection.getToAccount() == account) return connection;
         }
         return null;
@@ -410,51 +1293,29 @@ public class BankDatabase implements Serializable {
 
         if (bank != null) {
 
-            double amount = Utility.getDoubleInput("Enter AMOUNT");
-            double charge;
-            if (chargeAccount) charge = amount * bank.getTransactionCharge();
-            else charge = 0;
+            long amount = Utility.getMoneyInput("Enter AMOUNT");
+            long charge = getCharge(bank, amount, chargeAccount);
 
             // If they can not afford this try again (with message)
             while (!fromAccount.canAfford(amount + charge)) {
                 Utility.printError(fromAccount.formatName() + " can NOT afford: " + Utility.formatMoney(amount) + " + " + Utility.formatMoney(charge) + " (CHARGE) = " + Utility.formatMoney(amount + charge));
-                amount = Utility.getDoubleInput("Enter AMOUNT");
-                if (chargeAccount) charge = amount * bank.getTransactionCharge();
-                else charge = 0;
+                amount = Utility.getMoneyInput("Enter AMOUNT");
+                charge = getCharge(bank, amount, chargeAccount);
             }
 
             Utility.printLog("Transferring %d FROM %d TO %d.", Utility.formatMoney(amount), fromAccount.formatName(), toAccount.formatName());
 
-            Transaction transaction;
-            if (!reference.isEmpty()) {
-                transaction = new Transaction(getNewId(), fromAccount, toAccount, amount, charge, Utility.now(), reference);
-            } else transaction = new Transaction(getNewId(), fromAccount, toAccount, amount, charge, Utility.now());
-
-            bank.changeMoney(charge);
-            fromAccount.changeBalance(transaction.getAmount(fromAccount));
-            toAccount.changeBalance(transaction.getAmount(toAccount));
-
-            bank.addTransaction(transaction);
-            fromAccount.addTransaction(transaction);
-            toAccount.addTransaction(transaction);
-
-            if (fromAccount.checkBalance() && toAccount.checkBalance() && bank.checkBalance()) {
-                Utility.printSuccess("Transaction Successful: " + transaction);
+            Result<Transaction> result = transfer(new Request.Transfer(fromAccount, toAccount, amount, reference, chargeAccount));
+            if (result.isSuccess()) {
+                Utility.printSuccess("Transaction Successful: " + result.getValue());
             } else {
-                Utility.printError("Transaction ERROR:");
-                Utility.printError("FROM CHECK - " + fromAccount.checkBalance());
-                Utility.printError("TO CHECK - " + toAccount.checkBalance());
-                Utility.printError("BANK CHECK - " + bank.checkBalance());
-                // Revert balance to original
+                Utility.printError("Transaction ERROR: " + result.getMessage());
             }
         } else Utility.printError("No Bank found for Account '" + fromAccount + "'!");
     }
 
     private Bank getBank(Account account) {
-        for (Bank bank : banks) {
-            if (account.checkSortCode(bank.getSortCode())) return bank;
-        }
-        return null;
+        return getBank(account.getSortCode());
     }
 
     public Account addConnectedAccount(Account fromAccount) {
@@ -464,7 +1325,7 @@ public class BankDatabase implements Serializable {
         Account toAccount = null;
         String payeeName = Utility.getInput("Enter PAYEE NAME");
         Utility.print("Checking format...", false);
-        if (payeeName.matches("^[A-Z]+ [A-Z] [A-Z]+$")) {
+        if (payeeName.matches(PAYEE_NAME_REGEX)) {
             Utility.print("[PASSED]");
             Utility.print("Checking Occurrences...", false);
             if (checkNumberOfAccounts(payeeName)) {
@@ -483,19 +1344,13 @@ public class BankDatabase implements Serializable {
                                 Utility.print("[PASSED]");
                                 String reference = Utility.getInput("Enter Default REFERENCE");
 
-                                if (!connectionExistsInDatabase(toAccount)) {
-                                    Connection connection;
-                                    if (reference.isEmpty())
-                                        connection = new Connection(getNewId(), loggedInUser, toAccount);
-                                    else connection = new Connection(getNewId(), loggedInUser, toAccount, reference);
-
-                                    loggedInUser.addConnection(connection);
-
+                                Result<Connection> result = addConnection(new Request.NewConnection(loggedInUser, payeeName, number, sortCode, reference));
+                                if (result.isSuccess()) {
                                     valid = true;
 
-                                    Utility.printSuccess("CONNECTION SUCCESSFULLY ADDED: " + connection);
+                                    Utility.printSuccess("CONNECTION SUCCESSFULLY ADDED: " + result.getValue());
 
-                                } else Utility.printLog("Connection already exists");
+                                } else Utility.printLog(result.getMessage());
                             } else Utility.printLog("Accounts can not be equal!");
                         } else Utility.printLog("No Account found!");
                     }
@@ -506,24 +1361,13 @@ public class BankDatabase implements Serializable {
         return toAccount;
     }
 
-    private boolean connectionExistsInDatabase(Account toAccount) {
-        for (Connection connection : loggedInUser.getConnectedAccounts()) {
-            if (connection.getToAccount() == toAccount) return true;
-        }
-        return false;
-    }
-
+    // The Account only counts if one of its Users, still in the database, goes by payeeName
     private Account getAccountFromCredentials(String payeeName, String number, String sortCode) {
-        for (User user : users) {
-            if (user.checkPayeeName(payeeName)) {
-                for (Account account : user.getAccounts()) {
-                    if (account.checkNumber(number) && account.checkSortCode(sortCode)) {
-                        return account;
-                    }
-                }
-            }
+        Account account = getAccount(sortCode, number);
+        if (account == null) return null;
+        for (User user : account.getUsers()) {
+            if (users.containsKey(user.getId()) && user.checkPayeeName(payeeName)) return account;
         }
-        Utility.printLog("No Account Found with: [Payee '%d', Account Number '%d', Sort Code '%d']", payeeName, number, sortCode);
         return null;
     }
 
@@ -536,26 +1380,41 @@ public class BankDatabase implements Serializable {
     }
 
     private boolean checkNumberOfAccounts(String payeeName) {
-        for (User user : users) {
-            if (user.checkPayeeName(payeeName)) {
-                return true;
-            }
-        }
-        return false;
+        return usersByPayeeName.containsKey(payeeKey(payeeName));
     }
 
     private boolean notUniqueId(String id, DynamicList<?> objects) {
-        for (Object object: objects) {
-            if (id.equals(objects.getComparator(object))) return true;
-        }
-        return false;
+        return objects.containsKey(id);
     }
 
     private boolean uniqueSortCode(String sortCode) {
-        for (Bank bank : banks) {
-            if (bank.getSortCode().equals(sortCode)) return false;
+        return getBank(sortCode) == null;
+    }
+
+    public void runTransferBatch() {
+        Utility.printTitle("RUN TRANSFER BATCH");
+
+        String fileName = Utility.getInput("Enter transfer FILE");
+        if (!fileName.isEmpty()) {
+            Result<BatchReport> result = transferBatch(fileName);
+            if (result.isSuccess()) {
+                BatchReport report = result.getValue();
+                if (report.getRejected() == 0) Utility.printSuccess(report);
+                else Utility.printError(report);
+            } else Utility.printError(result.getMessage());
         }
-        return true;
+    }
+
+    // Up to the end of yesterday, the last whole day
+    public void accrueInterest() {
+        Utility.printTitle("ACCRUE INTEREST");
+
+        Result<InterestReport> result = accrueInterest(Utility.now().toLocalDate().minusDays(1));
+        if (result.isSuccess()) {
+            InterestReport report = result.getValue();
+            if (report.getUnpaid() == 0) Utility.printSuccess(report);
+            else Utility.printError(report);
+        } else Utility.printError(result.getMessage());
     }
 
     public void displayAllUsers() {
@@ -573,6 +1432,42 @@ public class BankDatabase implements Serializable {
         banks.forEach(bank -> Utility.print(bank.toInfo()));
     }
 
+    public void verifyBalances() {
+        Utility.printTitle("VERIFY ALL BALANCES");
+
+        int failures = 0;
+        for (Bank bank : banks) {
+            if (!bank.verifyBalance()) {
+                failures++;
+                Utility.printError("BANK CHECK FAILED - " + bank);
+            }
+            for (Account account : bank.getAccounts()) {
+                if (!account.verifyBalance()) {
+                    failures++;
+                    Utility.printError("ACCOUNT CHECK FAILED - " + account.formatName());
+                }
+            }
+        }
+
+        if (failures == 0) Utility.printSuccess("ALL BALANCES VERIFIED");
+        else Utility.printError(failures + " " + Utility.formatPlural("Check", failures) + " Failed!");
+    }
+
+    public void displayMetrics() {
+        Utility.printTitle("METRICS");
+        Utility.print(KeyManager.getMetrics());
+        Utility.print(getShards().getMetrics());
+    }
+
+    public void benchmarkCompression(KeyManager keys) {
+        Utility.printTitle("BENCHMARK COMPRESSION");
+        try {
+            Utility.print("Every Shard Encoded and Encrypted:" + ShardStore.benchmark(this, keys));
+        } catch (IOException e) {
+            Utility.printError(e.getMessage());
+        }
+    }
+
     private String getNewId() {
         return UUID.randomUUID().toString();
     }
@@ -0,0 +1,46 @@
+public enum BankError {
+    INVALID_USERNAME("USERNAME incorrectly formatted"),
+    USERNAME_EXISTS("USERNAME already exists"),
+    INVALID_PASSWORD("PASSWORD incorrectly formatted"),
+    INVALID_SECURITY_QUESTIONS("3 different SECURITY QUESTIONS must be answered"),
+    INVALID_ANSWER("SECURITY QUESTION answer incorrectly formatted"),
+    INVALID_TITLE("Honorific incorrectly formatted"),
+    INVALID_FULL_NAME("Full Name incorrectly formatted"),
+    INVALID_PAYEE_NAME("PAYEE NAME incorrectly formatted"),
+    INVALID_ACCOUNT_NUMBER("Account NUMBER incorrectly formatted"),
+    INVALID_SORT_CODE("SORT CODE incorrectly formatted"),
+    INVALID_AMOUNT("Amount can NOT be negative"),
+    USER_NOT_FOUND("No User found"),
+    USER_LOCKED("User is locked"),
+    WRONG_PASSWORD("Password Incorrect"),
+    BANK_NOT_FOUND("No Bank found"),
+    ACCOUNT_NOT_FOUND("No Account found"),
+    PAYEE_NOT_FOUND("No Payee found"),
+    NOT_ENOUGH_USERS("Joint Accounts need at least 2 Users"),
+    TOO_MANY_USERS("Only Joint Accounts can have more than 1 User"),
+    DUPLICATE_USER("User is already a user in the Account"),
+    ACCOUNT_TYPE_EXISTS("User already has an Account of this type"),
+    BANK_CAN_NOT_AFFORD("Bank can NOT afford the initial balance"),
+    INSUFFICIENT_FUNDS("Account can NOT afford the amount and charge"),
+    SAME_ACCOUNT("Accounts can not be equal"),
+    CONNECTION_EXISTS("Connection already exists"),
+    ACCOUNT_NOT_EMPTY("Account is not empty"),
+    TRANSFER_FAILED("Transfer rolled back, no balances were changed"),
+    BATCH_FAILED("Transfer file could not be read"),
+    INTEREST_FAILED("Interest run stopped, running it again pays the rest"),
+    ACCOUNT_NOT_ACTIVE("Account is not ACTIVE"),
+    CONNECTION_NOT_FOUND("No Connection found"),
+    INVALID_SCHEDULE("First payment can NOT be in the past and repeats must be a positive period apart"),
+    STANDING_ORDER_NOT_FOUND("No Standing Order found");
+
+    private final String value;
+
+    BankError(String value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
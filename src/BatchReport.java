@@ -0,0 +1,56 @@
+// Totals from one transfer file, rejected rows are listed in the reject file
+public class BatchReport {
+    private final String fileName;
+    private final String rejectFileName;
+    private int applied;
+    private int rejected;
+    private long amount; // Pence
+    private long charges;
+
+    public BatchReport(String fileName, String rejectFileName) {
+        this.fileName = fileName;
+        this.rejectFileName = rejectFileName;
+        this.applied = 0;
+        this.rejected = 0;
+        this.amount = 0;
+        this.charges = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "'" + fileName + "': " + applied + " " + Utility.formatPlural("Transfer", applied) + " applied ("
+                + Utility.formatMoney(amount) + " + " + Utility.formatMoney(charges) + " CHARGES), "
+                + rejected + " " + Utility.formatPlural("Row", rejected) + " rejected"
+                + (rejected > 0 ? " (see '" + rejectFileName + "')" : "");
+    }
+
+    public void addApplied(long amount, long charge) {
+        applied++;
+        this.amount += amount;
+        this.charges += charge;
+    }
+
+    public void addRejected() {
+        rejected++;
+    }
+
+    public String getRejectFileName() {
+        return rejectFileName;
+    }
+
+    public int getApplied() {
+        return applied;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getCharges() {
+        return charges;
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// Reads what BinaryWriter wrote
+public class BinaryReader extends DataInputStream {
+    private final List<String> strings;
+
+    public BinaryReader(InputStream in) {
+        super(in);
+        this.strings = new ArrayList<>();
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Error: Malformed varint");
+    }
+
+    public int readVarInt() throws IOException {
+        long value = readVarLong();
+        if (value > 0xFFFFFFFFL) throw new IOException("Error: Varint too large for an int");
+        return (int) value;
+    }
+
+    public long readSignedVarLong() throws IOException {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String readString() throws IOException {
+        byte[] bytes = new byte[readVarInt()];
+        readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public String readSharedString() throws IOException {
+        int index = readVarInt();
+        if (index == 0) return null;
+        if (index == 1) {
+            String value = readString();
+            strings.add(value);
+            return value;
+        }
+        if (index - 2 >= strings.size()) throw new IOException("Error: Unknown shared string " + (index - 2));
+        return strings.get(index - 2);
+    }
+
+    public String readUuid() throws IOException {
+        return new UUID(readLong(), readLong()).toString();
+    }
+
+    public LocalDateTime readTime() throws IOException {
+        long seconds = readSignedVarLong();
+        return LocalDateTime.ofEpochSecond(seconds, readVarInt(), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// DataOutputStream plus the compact encodings DatabaseCodec uses, read back by BinaryReader
+public class BinaryWriter extends DataOutputStream {
+    // Strings that repeat (sort codes, references, questions) are written once then referred to by index
+    private final Map<String, Integer> strings;
+
+    public BinaryWriter(OutputStream out) {
+        super(out);
+        this.strings = new HashMap<>();
+    }
+
+    // 7 bits per byte, small numbers take one byte
+    public void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        write((int) value);
+    }
+
+    public void writeVarInt(int value) throws IOException {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    // Zig-zag, so small negative numbers stay small too
+    public void writeSignedVarLong(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        write(bytes);
+    }
+
+    // 0 is null, 1 is a new string written in full, anything else is an earlier string
+    public void writeSharedString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarInt(index + 2);
+        } else {
+            strings.put(value, strings.size());
+            writeVarInt(1);
+            writeString(value);
+        }
+    }
+
+    public void writeUuid(String id) throws IOException {
+        UUID uuid = UUID.fromString(id);
+        writeLong(uuid.getMostSignificantBits());
+        writeLong(uuid.getLeastSignificantBits());
+    }
+
+    // Epoch seconds then nanos, read as UTC like the Ledger
+    public void writeTime(LocalDateTime time) throws IOException {
+        writeSignedVarLong(time.toEpochSecond(ZoneOffset.UTC));
+        writeVarInt(time.getNano());
+    }
+}
@@ -1,6 +1,5 @@
-import java.io.Serializable;
 
-public class Connection implements Serializable {
+public class Connection {
     private final String id;
     private final User user;
     private final Account toAccount;
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Hand written snapshot encoding, in place of ObjectOutputStream walking the object graph
+// Objects are written once each in flat tables and refer to one another by table index or id
+// Numbers are varints, times are epoch based and repeated strings are written once
+// The database is split into shards (see ShardStore): a directory of users, one per Bank with its Accounts, their
+// postings and its standing orders, and the Ledger rows in fixed size chunks
+// Transaction history follows everything else in fixed width form, so a load only parses what comes before it
+// and the history is read out of the mapped shard when it is asked for
+// Databases saved before this encoding are Java serialized and are migrated when they are loaded
+public class DatabaseCodec {
+    public static final int MAGIC = 0x42444331; // "BDC1"
+    public static final int VERSION = 1;
+    // Kinds of shard
+    public static final byte MANIFEST = 0;
+    public static final byte DIRECTORY = 1;
+    public static final byte BANK = 2;
+    public static final byte LEDGER = 3;
+
+    private DatabaseCodec() {}
+
+    // Listed users first, then removed users who still own Accounts, as those must be written too
+    private static DynamicList<User> allUsers(BankDatabase database, Map<User, Integer> userIndexes) {
+        Ledger ledger = database.getLedger();
+        DynamicList<User> allUsers = new DynamicList<>("All Users");
+        for (User user : database.getUsers()) {
+            userIndexes.put(user, allUsers.size());
+            allUsers.add(user);
+        }
+        for (int ordinal = 0; ordinal < ledger.getNumberOfAccounts(); ordinal++) {
+            for (User user : ledger.getAccount(ordinal).getUsers()) {
+                if (!userIndexes.containsKey(user)) {
+                    userIndexes.put(user, allUsers.size());
+                    allUsers.add(user);
+                }
+            }
+        }
+        return allUsers;
+    }
+
+    private static void writeUser(User user, BinaryWriter out) throws IOException {
+        out.writeUuid(user.getId());
+        out.writeString(user.getUsername());
+        user.getPassword().write(out);
+        out.writeVarInt(user.getSecurityQuestions().size());
+        for (SecurityQuestion securityQuestion : user.getSecurityQuestions()) {
+            out.writeUuid(securityQuestion.getId());
+            out.writeSharedString(securityQuestion.getOutput());
+            out.writeSharedString(securityQuestion.getRegex());
+            securityQuestion.getAnswer().write(out);
+        }
+        out.writeSharedString(user.getTitle());
+        out.writeString(user.getFullName());
+        out.writeTime(user.getUnlockTime());
+        out.writeVarInt(user.getNumberOfTimesLocked());
+    }
+
+    private static User readUser(BinaryReader in) throws IOException {
+        String id = in.readUuid();
+        String username = in.readString();
+        Password password = Password.read(in);
+        DynamicList<SecurityQuestion> securityQuestions = new DynamicList<>("", SecurityQuestion::getId);
+        int numberOfSecurityQuestions = in.readVarInt();
+        for (int j = 0; j < numberOfSecurityQuestions; j++) {
+            securityQuestions.add(new SecurityQuestion(in.readUuid(), in.readSharedString(), in.readSharedString(), Password.read(in)));
+        }
+        String title = in.readSharedString();
+        String fullName = in.readString();
+        return new User(id, username, password, securityQuestions, title, fullName,
+                new DynamicList<>("", Account::getId), new DynamicList<>("", Connection::getId), in.readTime(), in.readVarInt());
+    }
+
+    // A user's Accounts and connections, by Account ordinal
+    private static void writeLinks(User user, BinaryWriter out) throws IOException {
+        out.writeVarInt(user.getAccounts().size());
+        for (Account account : user.getAccounts()) out.writeVarInt(account.getOrdinal());
+        out.writeVarInt(user.getConnectedAccounts().size());
+        for (Connection connection : user.getConnectedAccounts()) {
+            out.writeUuid(connection.getId());
+            out.writeVarInt(connection.getToAccount().getOrdinal());
+            out.writeSharedString(connection.getReference());
+        }
+    }
+
+    private static void readLinks(User user, Account[] accounts, BinaryReader in) throws IOException {
+        int numberOfAccounts = in.readVarInt();
+        for (int j = 0; j < numberOfAccounts; j++) user.addAccount(account(accounts, in.readVarInt()));
+        int numberOfConnections = in.readVarInt();
+        for (int j = 0; j < numberOfConnections; j++) {
+            user.addConnection(new Connection(in.readUuid(), user, account(accounts, in.readVarInt()), in.readSharedString()));
+        }
+    }
+
+    // By Account ordinal and ids, as the directory holding the user and connection may be rewritten without it
+    private static void writeStandingOrder(StandingOrder standingOrder, BinaryWriter out) throws IOException {
+        out.writeUuid(standingOrder.getId());
+        out.writeUuid(standingOrder.getUser().getId());
+        out.writeVarInt(standingOrder.getFromAccount().getOrdinal());
+        out.writeUuid(standingOrder.getConnection().getId());
+        out.writeVarLong(standingOrder.getAmount());
+        out.writeSharedString(standingOrder.getOwnReference());
+        out.writeSharedString(standingOrder.getInterval() == null ? null : standingOrder.getInterval().toString());
+        out.writeTime(standingOrder.getFirstDue());
+        out.writeVarInt(standingOrder.getRuns());
+    }
+
+    private static StandingOrder readStandingOrder(Map<String, User> usersById, Account[] accounts, BinaryReader in) throws IOException {
+        String id = in.readUuid();
+        String userId = in.readUuid();
+        User user = usersById.get(userId);
+        if (user == null) throw new IOException("Error: Unknown User " + userId);
+        Account fromAccount = account(accounts, in.readVarInt());
+        String connectionId = in.readUuid();
+        Connection connection = user.getConnectedAccounts().get(connectionId);
+        if (connection == null) throw new IOException("Error: Unknown Connection " + connectionId);
+        long amount = in.readVarLong();
+        String reference = in.readSharedString();
+        String interval = in.readSharedString();
+        return new StandingOrder(id, user, fromAccount, connection, amount, reference, interval == null ? null : Period.parse(interval), in.readTime(), in.readVarInt());
+    }
+
+    // SHARDS
+    // Each shard is written and read by ShardStore as [int magic][byte version][byte kind][int length][entities][history]
+
+    // Every user with their Accounts and connections, then the logged in user
+    public static void writeDirectory(BankDatabase database, BinaryWriter out) throws IOException {
+        Map<User, Integer> userIndexes = new IdentityHashMap<>();
+        DynamicList<User> allUsers = allUsers(database, userIndexes);
+        out.writeVarInt(database.getLedger().getNumberOfAccounts());
+        out.writeVarInt(allUsers.size());
+        out.writeVarInt(database.getUsers().size());
+        for (User user : allUsers) writeUser(user, out);
+        for (User user : allUsers) writeLinks(user, out);
+
+        User loggedInUser = database.getLoggedInUser();
+        out.writeVarInt(loggedInUser == null ? 0 : userIndexes.get(loggedInUser) + 1);
+    }
+
+    // One Bank and its Accounts in ordinal order, Account users by id as the directory may be rewritten without it
+    // Only the number of postings is written here, the offsets themselves go in the history by writeBankHistory
+    public static void writeBank(Bank bank, BinaryWriter out) throws IOException {
+        out.writeUuid(bank.getId());
+        out.writeString(bank.getName());
+        out.writeSharedString(bank.getSortCode());
+        out.writeVarInt(bank.getInterestRate());
+        out.writeVarInt(bank.getTransactionChargeRate());
+        out.writeVarLong(bank.getInitialBalance());
+        out.writeSignedVarLong(bank.getBalance());
+        out.writeSignedVarLong(bank.getExpectedBalance());
+
+        out.writeVarInt(bank.getAccounts().size());
+        for (Account account : bank.getAccounts()) {
+            out.writeVarInt(account.getOrdinal());
+            out.writeUuid(account.getId());
+            out.writeByte(account.getType().ordinal());
+            out.writeString(account.getNumber());
+            out.writeVarLong(account.getInitialBalance());
+            out.writeSignedVarLong(account.getBalance());
+            out.writeSignedVarLong(account.getExpectedBalance());
+            out.writeVarInt(account.getUsers().size());
+            for (User user : account.getUsers()) out.writeUuid(user.getId());
+            out.writeTime(account.getCreatedAt());
+            out.writeByte(account.getStatus().ordinal());
+            out.writeVarLong(account.getInterestPaidTo() == null ? 0 : account.getInterestPaidTo().toEpochDay() + 1);
+            out.writeVarInt(account.getTransactions().size());
+        }
+        out.writeVarInt(bank.getTransactions().size());
+
+        out.writeVarInt(bank.getStandingOrders().size());
+        for (StandingOrder standingOrder : bank.getStandingOrders()) writeStandingOrder(standingOrder, out);
+    }
+
+    public static void writeBankHistory(Bank bank, BinaryWriter out) throws IOException {
+        for (Account account : bank.getAccounts()) account.getTransactions().write(out);
+        bank.getTransactions().write(out);
+    }
+
+    // Rebuilds the database from a directory and a Bank shard per Bank, in the order the Banks are listed
+    // accountBanks holds the Bank of every Account ordinal, so Accounts register with the Ledger in order
+    // The Ledger is attached by the caller, as its rows live in shards of their own
+    public static BankDatabase readShards(long journalSequence, BinaryReader directory, BinaryReader[] banks, HistoryStore[] bankHistories, int[] accountBanks, Ledger ledger) throws IOException {
+        if (directory.readVarInt() != accountBanks.length) throw new IOException("Error: Directory and manifest disagree on the number of Accounts");
+
+        // USERS
+        User[] allUsers = new User[directory.readVarInt()];
+        int numberOfListedUsers = directory.readVarInt();
+        Map<String, User> usersById = new HashMap<>();
+        for (int i = 0; i < allUsers.length; i++) {
+            allUsers[i] = readUser(directory);
+            usersById.put(allUsers[i].getId(), allUsers[i]);
+        }
+
+        // BANKS
+        Bank[] bankArray = new Bank[banks.length];
+        long[] balances = new long[banks.length];
+        long[] expectedBalances = new long[banks.length];
+        int[] remainingAccounts = new int[banks.length];
+        long[] postingsPositions = new long[banks.length];
+        for (int i = 0; i < banks.length; i++) {
+            BinaryReader in = banks[i];
+            String id = in.readUuid();
+            String name = in.readString();
+            String sortCode = in.readSharedString();
+            int interestRate = in.readVarInt();
+            int transactionCharge = in.readVarInt();
+            long initialBalance = in.readVarLong();
+            balances[i] = in.readSignedVarLong();
+            expectedBalances[i] = in.readSignedVarLong();
+            remainingAccounts[i] = in.readVarInt();
+            DynamicList<Account> bankAccounts = new DynamicList<>(Utility.formatPossession(name) + " Accounts", Account::getId);
+            bankArray[i] = new Bank(id, name, sortCode, interestRate, transactionCharge, initialBalance, bankAccounts, ledger);
+        }
+
+        // ACCOUNTS
+        AccountType[] types = AccountType.values();
+        Status[] statuses = Status.values();
+        Account[] accounts = new Account[accountBanks.length];
+        for (int ordinal = 0; ordinal < accounts.length; ordinal++) {
+            int bankIndex = accountBanks[ordinal];
+            if (bankIndex < 0 || bankIndex >= banks.length || remainingAccounts[bankIndex]-- == 0) throw new IOException("Error: Account " + ordinal + " has no Bank");
+            BinaryReader in = banks[bankIndex];
+            Bank bank = bankArray[bankIndex];
+            if (in.readVarInt() != ordinal) throw new IOException("Error: " + bank.getName() + " does not hold Account " + ordinal);
+
+            String id = in.readUuid();
+            AccountType type = types[in.readUnsignedByte()];
+            String number = in.readString();
+            long initialBalance = in.readVarLong();
+            long balance = in.readSignedVarLong();
+            long expectedBalance = in.readSignedVarLong();
+            DynamicList<User> accountUsers = new DynamicList<>("Users", User::getId);
+            int numberOfUsers = in.readVarInt();
+            for (int j = 0; j < numberOfUsers; j++) {
+                String userId = in.readUuid();
+                User user = usersById.get(userId);
+                if (user == null) throw new IOException("Error: Unknown User " + userId);
+                accountUsers.add(user);
+            }
+
+            // Registers with the Ledger in ordinal order, whichever Bank it is read from
+            Account account = new Account(id, type, number, bank.getSortCode(), initialBalance, ledger, accountUsers, in.readTime());
+            if (account.getOrdinal() != ordinal) throw new IOException("Error: Account " + id + " registered out of order");
+            Status status = statuses[in.readUnsignedByte()];
+            long interestPaidTo = in.readVarLong();
+            if (interestPaidTo != 0) account.setInterestPaidTo(LocalDate.ofEpochDay(interestPaidTo - 1));
+            int count = in.readVarInt();
+            account.restore(balance, expectedBalance, status, PostingList.lazy(bankHistories[bankIndex], postingsPositions[bankIndex], count));
+            postingsPositions[bankIndex] += 4L * count;
+            bank.getAccounts().add(account);
+            accounts[ordinal] = account;
+        }
+
+        DynamicList<Bank> bankList = new DynamicList<>("Banks", Bank::getId);
+        for (int i = 0; i < banks.length; i++) {
+            if (remainingAccounts[i] != 0) throw new IOException("Error: " + bankArray[i].getName() + " holds Accounts the manifest does not list");
+            int count = banks[i].readVarInt();
+            bankArray[i].restore(balances[i], expectedBalances[i], PostingList.lazy(bankHistories[i], postingsPositions[i], count));
+            bankHistories[i].setLength(postingsPositions[i] + 4L * count);
+            bankList.add(bankArray[i]);
+        }
+
+        // USER ACCOUNTS AND CONNECTIONS
+        for (User user : allUsers) readLinks(user, accounts, directory);
+
+        // STANDING ORDERS, once every connection is back
+        for (int i = 0; i < banks.length; i++) {
+            int numberOfStandingOrders = banks[i].readVarInt();
+            for (int j = 0; j < numberOfStandingOrders; j++) bankArray[i].addStandingOrder(readStandingOrder(usersById, accounts, banks[i]));
+        }
+
+        DynamicList<User> users = new DynamicList<>("Users", User::getId);
+        for (int i = 0; i < numberOfListedUsers; i++) users.add(allUsers[i]);
+        int loggedInUser = directory.readVarInt();
+
+        return new BankDatabase(users, bankList, ledger, journalSequence, loggedInUser == 0 ? null : user(allUsers, loggedInUser - 1));
+    }
+
+    private static User user(User[] users, int index) throws IOException {
+        if (index < 0 || index >= users.length) throw new IOException("Error: Unknown User " + index);
+        return users[index];
+    }
+
+    private static Account account(Account[] accounts, int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= accounts.length) throw new IOException("Error: Unknown Account " + ordinal);
+        return accounts[ordinal];
+    }
+}
@@ -1,21 +1,38 @@
-import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class DynamicList<DataType> implements Iterable<DataType>, Serializable, Cloneable {
+public class DynamicList<DataType> implements Iterable<DataType>, Cloneable {
     private String name;
     private Object[] array;
     private int size;
     private static final int DEFAULT_CAPACITY = 10;
+    // Bulk operations on lists at least this long are split across the common fork/join pool
+    public static final int PARALLEL_THRESHOLD = 1 << 13;
     private final Boolean leaderboard;
+    // Typed comparator, falls back to getComparator's instanceof checks when null
+    private final KeyExtractor<? super DataType> keyExtractor;
+    // Comparator -> index, built on first keyed lookup
+    private HashMap<String, Integer> keyIndex;
+    // Element i is array[offset + i * step], or array[slots[offset + i * step]] when slots are set
+    private int offset = 0;
+    private int step = 1;
+    private int[] slots;
+    // A view reads another list's array and copies it before any change
+    private boolean view;
+    // An array with views over it is copied before being changed in place
+    private boolean shared;
 
     public DynamicList(String name, DataType[] array) {
         this.name = name;
         this.array = Arrays.copyOf(array, array.length);
         this.size = array.length;
         this.leaderboard = false;
+        this.keyExtractor = null;
     }
 
     public DynamicList(String name, int size) {
@@ -23,6 +40,7 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
         this.array = new Object[size];
         this.size = size;
         this.leaderboard = false;
+        this.keyExtractor = null;
     }
 
     public DynamicList(String name) {
@@ -30,6 +48,7 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
         this.array = new Object[DEFAULT_CAPACITY];
         this.size = 0;
         this.leaderboard = false;
+        this.keyExtractor = null;
     }
 
     public DynamicList(String name, Boolean leaderboard) {
@@ -37,6 +56,15 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
         this.array = new Object[DEFAULT_CAPACITY];
         this.size = 0;
         this.leaderboard = leaderboard;
+        this.keyExtractor = null;
+    }
+
+    public DynamicList(String name, KeyExtractor<? super DataType> keyExtractor) {
+        this.name = name;
+        this.array = new Object[DEFAULT_CAPACITY];
+        this.size = 0;
+        this.leaderboard = false;
+        this.keyExtractor = keyExtractor;
     }
 
     @Override
@@ -45,7 +73,7 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
 
         for (int i = 0; i < size; i++) {
             if (i != 0) output.append(", ");
-            output.append(getComparator(array[i]));
+            output.append(getComparator(element(i)));
         }
         return output + "]";
     }
@@ -67,7 +95,7 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
             if (depth == 1) print("");
             print(" │ ".repeat(depth - 1) + " v " + name + " [" + size + "]:");
             for (int i = 0; i < size; i++) {
-                Object element = array[i];
+                Object element = element(i);
                 if (element instanceof DynamicList) { // Recursively call function if another dynamic list
                     ((DynamicList<?>) element).display(depth + 1);
                 } else {
@@ -91,7 +119,7 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
                     else if (String.valueOf(i+1).length() == 3) cursor = (i+1) + " > "; // "111 > "
                     else cursor = (i+1) + "> "; // "1111> etc."
                 }
-                Object element = array[i];
+                Object element = element(i);
                 if (element instanceof DynamicList) { // Recursively call function if another dynamic list
                     ((DynamicList<?>) element).display(depth + 1, ranked);
                 } else {
@@ -120,8 +148,11 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
     public void add(DataType element) {
         if (element != null) {
             if (ensureUnique(element)) {
+                if (view) materialize();
                 ensureCapacity(size + 1);
-                array[size++] = element;
+                array[size] = element;
+                if (keyIndex != null) indexSlot(size);
+                size++;
             } else {
                 System.err.println("Info: Element '" + element + "' not added to DynamicList '" + name + "' as it already exists.");
             }
@@ -134,12 +165,24 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
     }
 
     private Boolean ensureUnique(DataType newElement) {
-        for (int i = 0; i < size; i++) {
-            if (getComparator(array[i]).equals(getComparator(newElement))) {
-                return false;
-            }
+        String comparator = getComparator(newElement);
+        return comparator == null || !getIndex().containsKey(comparator);
+    }
+
+    private HashMap<String, Integer> getIndex() {
+        if (keyIndex == null) {
+            keyIndex = new HashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+            for (int i = 0; i < size; i++) indexSlot(i);
         }
-        return true;
+        return keyIndex;
+    }
+
+    private void indexSlot(int slot) {
+        Object element = element(slot);
+        if (element == null) return;
+        String comparator = getComparator(element);
+        // Keep the first occurrence, as get(String) returns the first match
+        if (comparator != null) keyIndex.putIfAbsent(comparator, slot);
     }
 
     private void ensureCapacity(int requiredSize) {
@@ -160,35 +203,99 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
 
     public void remove(int index) {
         if (index >= 0 && index < size) {
+            if (view) materialize();
+            else if (shared) copyOnWrite();
+            if (keyIndex != null && array[index] != null) {
+                String comparator = getComparator(array[index]);
+                if (comparator != null) keyIndex.remove(comparator, index);
+            }
             int numToMove = size - index - 1;
             if (numToMove > 0) {
                 System.arraycopy(array, index + 1, array, index, numToMove);
             }
             array[--size] = null;
+            if (keyIndex != null) reindexFrom(index);
         } else
             throw new IndexOutOfBoundsException("Error: Index out of bounds for DynamicList '" + name + "' while trying to remove index " + index + " for length " + size);
     }
 
+    // Shift the slots of elements moved down by a removal
+    private void reindexFrom(int from) {
+        for (int i = from; i < size; i++) {
+            if (array[i] == null) continue;
+            String comparator = getComparator(array[i]);
+            if (comparator != null) {
+                Integer slot = keyIndex.get(comparator);
+                // Moved element, or a later duplicate of the removed element
+                if (slot == null || slot == i + 1) keyIndex.put(comparator, i);
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public DataType get(int index) {
         if (index < 0 || index >= size) {
             throw new IndexOutOfBoundsException("Error: Index out of bounds for DynamicList '" + name + "' while trying to get index " + index + " for length " + size);
         }
-        return (DataType) array[index];
+        return (DataType) element(index);
+    }
+
+    private Object element(int index) {
+        int position = offset + index * step;
+        return slots == null ? array[position] : array[slots[position]];
+    }
+
+    // Index into the backing array of the element at index
+    private int arrayIndex(int index) {
+        int position = offset + index * step;
+        return slots == null ? position : slots[position];
+    }
+
+    private boolean isContiguous() {
+        return offset == 0 && step == 1 && slots == null;
+    }
+
+    // Copy a view's elements into an array of its own
+    private void materialize() {
+        array = copyElements(Math.max(size, DEFAULT_CAPACITY));
+        resetLayout();
+    }
+
+    private void copyOnWrite() {
+        array = Arrays.copyOf(array, array.length);
+        shared = false;
+    }
+
+    private void resetLayout() {
+        offset = 0;
+        step = 1;
+        slots = null;
+        view = false;
+        shared = false;
+    }
+
+    private Object[] copyElements(int length) {
+        if (isContiguous()) return Arrays.copyOf(array, length);
+        Object[] elements = new Object[length];
+        for (int i = 0; i < size; i++) elements[i] = element(i);
+        return elements;
     }
 
     @SuppressWarnings("unchecked")
     public DataType get(String comparator) {
-        for (int i = 0; i < size; i++) {
-            if (comparator.equals(getComparator(array[i]))) {
-                return (DataType) array[i];
-            }
-        }
+        Integer slot = getIndex().get(comparator);
+        if (slot != null) return (DataType) element(slot);
         System.err.println("Info: Could not get element from DynamicList '" + name + "' with string '" + comparator + "'.");
         return null;
     }
 
+    @SuppressWarnings("unchecked")
     public String getComparator(Object element) {
+        if (keyExtractor != null) return keyExtractor.getComparator((DataType) element);
+        return findComparator(element);
+    }
+
+    private String findComparator(Object element) {
         // Different obj will have different comparator values
         // Return the relevant one
         if (element instanceof User) {
@@ -223,6 +330,8 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
     public void clear() {
         array = new Object[DEFAULT_CAPACITY];
         size = 0;
+        keyIndex = null;
+        resetLayout();
     }
 
     public Boolean isEmpty() {
@@ -231,24 +340,35 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
 
     public Boolean contains(DataType element) {
         for (int i = 0; i < size; i++) {
-            if (element.equals(array[i])) return true;
+            if (element.equals(element(i))) return true;
         }
         return false;
     }
 
+    public Boolean containsKey(String comparator) {
+        return getIndex().containsKey(comparator);
+    }
+
 //    public Boolean contains(String propertyValue) {
 //        return get(propertyValue) != null;
 //    }
 
     @SuppressWarnings("unchecked")
     public DataType[] toArray() {
-        return Arrays.copyOf(array, size, (Class<? extends DataType[]>) array.getClass());
+        DataType[] elements = Arrays.copyOf(array, size, (Class<? extends DataType[]>) array.getClass());
+        if (!isContiguous()) {
+            for (int i = 0; i < size; i++) elements[i] = (DataType) element(i);
+        }
+        return elements;
     }
 
     public void addAll(Collection<? extends DataType> collection) {
+        if (view) materialize();
         ensureCapacity(size + collection.size());
         for (DataType element : collection) {
-            array[size++] = element;
+            array[size] = element;
+            if (keyIndex != null) indexSlot(size);
+            size++;
         }
     }
 
@@ -259,7 +379,7 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
 
     public int indexOf(DataType element) {
         for (int i = 0; i < size; i++) {
-            if (element == array[i]) return i;
+            if (element == element(i)) return i;
         }
         throw new NoSuchElementException("Element '" + element + "' not found in DynamicList '" + name + "'");
     }
@@ -267,79 +387,101 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
     @SuppressWarnings("unchecked")
     public void forEach(Consumer<? super DataType> action) {
         for (int i = 0; i < size; i++) {
-            action.accept((DataType) array[i]);
+            action.accept((DataType) element(i));
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public DynamicList<DataType> filter(String propertyName, String propertyValue) {
-        DynamicList<DataType> result = new DynamicList<>(name + " (Filtered by " + formatMethodName(propertyName) + ": '" + propertyValue + "')");
+    // Action must be thread safe, and elements are not visited in order
+    public void parallelForEach(Consumer<? super DataType> action) {
+        if (isParallel()) parallelStream().forEach(action);
+        else forEach(action);
+    }
 
-        for (int i = 0; i < size; i++) {
-            DataType element = (DataType) array[i];
-            try {
-                // Use reflection to get the property value dynamically
-                Method method = element.getClass().getMethod("get" + capitalize(propertyName));
-                Object actualValue = method.invoke(element);
-                if (actualValue != null && actualValue.toString().equals(propertyValue)) {
-                    result.add(element);
-                }
-            } catch (Exception e) {
-                // Handle reflection exceptions
-                e.printStackTrace();
-            }
-        }
-        return result;
+    public double sum(ToDoubleFunction<? super DataType> mapper) {
+        return parallelStream().mapToDouble(mapper).sum();
     }
 
-    @SuppressWarnings("unchecked")
-    public DynamicList<DataType> filter(String propertyName, Boolean propertyValue) {
-        DynamicList<DataType> result = new DynamicList<>(name + " (Filtered by " + formatMethodName(propertyName) + ": '" + propertyValue + "')");
+    // Exact whatever the split, so safe for money held in pence
+    public long sumLong(ToLongFunction<? super DataType> mapper) {
+        return parallelStream().mapToLong(mapper).sum();
+    }
 
-        for (int i = 0; i < size; i++) {
-            DataType element = (DataType) array[i];
-            try {
-                // Use reflection to get the property value dynamically
-                Method method = element.getClass().getMethod("get" + capitalize(propertyName));
-                Object actualValue = method.invoke(element);
-                if (actualValue != null && actualValue.equals(propertyValue)) {
-                    result.add(element);
-                }
-            } catch (Exception e) {
-                // Handle reflection exceptions
-                e.printStackTrace();
-            }
-        }
-        return result;
+    public DynamicList<DataType> filter(String propertyName, String propertyValue) {
+        return filter(name + " (Filtered by " + formatMethodName(propertyName) + ": '" + propertyValue + "')", propertyName,
+                (accessor, element) -> {
+                    Object actualValue = accessor.get(element);
+                    return actualValue != null && actualValue.toString().equals(propertyValue);
+                });
+    }
+
+    public DynamicList<DataType> filter(String propertyName, Boolean propertyValue) {
+        return filter(name + " (Filtered by " + formatMethodName(propertyName) + ": '" + propertyValue + "')", propertyName,
+                (accessor, element) -> propertyValue.equals(accessor.get(element)));
     }
 
-    @SuppressWarnings("unchecked")
     public DynamicList<DataType> filter(String propertyName, int propertyValue, String operator) {
-        DynamicList<DataType> result = new DynamicList<>(name + " (Filtered by " + formatMethodName(propertyName) + " " + operator + " " + propertyValue + ")");
+        String filterName = name + " (Filtered by " + formatMethodName(propertyName) + " " + operator + " " + propertyValue + ")";
+        // Resolve the operator once rather than per element
+        switch (operator) {
+            case "==":
+                return filter(filterName, propertyName, (accessor, element) -> accessor.getInt(element) == propertyValue);
+            case ">":
+                return filter(filterName, propertyName, (accessor, element) -> accessor.getInt(element) > propertyValue);
+            case "<":
+                return filter(filterName, propertyName, (accessor, element) -> accessor.getInt(element) < propertyValue);
+            default:
+                throw new IllegalArgumentException("Error: Unknown operator '" + operator + "' while filtering DynamicList '" + name + "'");
+        }
+    }
 
-        for (int i = 0; i < size; i++) {
-            DataType element = (DataType) array[i];
-            try {
-                // Use reflection to get the property value dynamically
-                Method method = element.getClass().getMethod("get" + capitalize(propertyName));
-                Object actualValue = method.invoke(element);
-                if (actualValue != null) {
-                    if (operator.equals("==") && (int) actualValue == propertyValue) {
-                        result.add(element);
-                    } else if (operator.equals(">") && (int) actualValue > propertyValue) {
-                        result.add(element);
-                    } else if (operator.equals("<") && (int) actualValue < propertyValue) {
-                        result.add(element);
-                    }
-                }
-            } catch (Exception e) {
-                // Handle reflection exceptions
-                e.printStackTrace();
+    // Returns a view over the matching elements rather than copying them
+    private DynamicList<DataType> filter(String filterName, String propertyName, PropertyTest test) {
+        if (size == 0) return view(filterName, 0, 1, new int[0], 0);
+
+        int[] matches;
+        if (isParallel()) {
+            // Elements are nearly always the same class, so share its accessor between threads
+            PropertyAccessor common = PropertyAccessor.of(element(0).getClass(), propertyName);
+            matches = IntStream.range(0, size).parallel()
+                    .filter(i -> test.test(accessorFor(element(i), common, propertyName), element(i)))
+                    .map(this::arrayIndex)
+                    .toArray(); // Encounter order is kept, so matches stay in list order
+        } else {
+            matches = new int[size];
+            int count = 0;
+            PropertyAccessor accessor = null;
+            for (int i = 0; i < size; i++) {
+                Object element = element(i);
+                accessor = accessorFor(element, accessor, propertyName);
+                if (test.test(accessor, element)) matches[count++] = arrayIndex(i);
             }
+            matches = Arrays.copyOf(matches, count);
         }
+        return view(filterName, 0, 1, matches, matches.length);
+    }
+
+    private DynamicList<DataType> view(String viewName, int viewOffset, int viewStep, int[] viewSlots, int viewSize) {
+        DynamicList<DataType> result = new DynamicList<>(viewName, keyExtractor);
+        result.array = array;
+        result.size = viewSize;
+        result.offset = viewOffset;
+        result.step = viewStep;
+        result.slots = viewSlots;
+        result.view = true;
+        shared = true;
         return result;
     }
 
+    private static PropertyAccessor accessorFor(Object element, PropertyAccessor previous, String propertyName) {
+        if (previous != null && previous.getType() == element.getClass()) return previous;
+        return PropertyAccessor.of(element.getClass(), propertyName);
+    }
+
+    @FunctionalInterface
+    private interface PropertyTest {
+        boolean test(PropertyAccessor accessor, Object element);
+    }
+
     private String capitalize(String str) {
         return str.substring(0, 1).toUpperCase() + str.substring(1);
     }
@@ -356,31 +498,27 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
         return output.toString();
     }
 
-    @SuppressWarnings("unchecked")
     public DynamicList<DataType> reversed() {
-        DynamicList<DataType> reversedList = new DynamicList<>(name + " (Reversed)");
-        for (int i = size - 1; i >= 0; i--) {
-            reversedList.add((DataType) array[i]);
-        }
-        return reversedList;
+        // Walk the same elements backwards
+        return view(name + " (Reversed)", offset + (size - 1) * step, -step, slots, size);
     }
 
-    @SuppressWarnings("unchecked")
     public DynamicList<DataType> random() {
         Random random = new Random();
 
-        Object[] newArray = Arrays.copyOf(array, size);
+        int[] newSlots = new int[size];
+        for (int i = 0; i < size; i++) newSlots[i] = arrayIndex(i);
 
-        for (int i = newArray.length - 1; i > 0; i--) {
+        for (int i = newSlots.length - 1; i > 0; i--) {
             int index = random.nextInt(i + 1);
 
             // Swap elements at i and index
-            Object temp = newArray[i];
-            newArray[i] = newArray[index];
-            newArray[index] = temp;
+            int temp = newSlots[i];
+            newSlots[i] = newSlots[index];
+            newSlots[index] = temp;
         }
 
-        return (DynamicList<DataType>) new DynamicList<>(name + " (Random)", newArray);
+        return view(name + " (Random)", 0, 1, newSlots, size);
     }
 
     @SuppressWarnings("unchecked")
@@ -389,7 +527,9 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
         try {
             DynamicList<DataType> clone = (DynamicList<DataType>) super.clone();
             clone.name = name + " (Clone)";
-            clone.array = Arrays.copyOf(array, size);
+            clone.array = copyElements(size);
+            clone.resetLayout();
+            if (keyIndex != null) clone.keyIndex = new HashMap<>(keyIndex);
             return clone;
         } catch (CloneNotSupportedException e) {
             throw new InternalError(e);
@@ -398,9 +538,10 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
 
     @SuppressWarnings("unchecked")
     public DynamicList<DataType> sort(Comparator<? super DataType> comparator, String sortMethod) {
-        DataType[] tempArray = (DataType[]) Arrays.copyOf(array, size);
-        Arrays.sort(tempArray, comparator);
-        DynamicList<DataType> newList = new DynamicList<>(name + " (Sorted by '" + formatMethodName(sortMethod) + "')");
+        DataType[] tempArray = (DataType[]) copyElements(size);
+        if (isParallel()) Arrays.parallelSort(tempArray, comparator);
+        else Arrays.sort(tempArray, comparator);
+        DynamicList<DataType> newList = new DynamicList<>(name + " (Sorted by '" + formatMethodName(sortMethod) + "')", keyExtractor);
         newList.setFromArray(tempArray);
         return newList;
     }
@@ -413,21 +554,79 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
         this.name = newName;
         this.array = Arrays.copyOf(newArray, newArray.length);
         this.size = newArray.length;
+        this.keyIndex = null;
+        resetLayout();
     }
 
-    @SuppressWarnings("unchecked")
     public DynamicList<DataType> subList(int fromIndex, int toIndex) {
         if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
             throw new IndexOutOfBoundsException();
         }
-        DynamicList<DataType> sublist = new DynamicList<>(name + " (Sublist)");
-        sublist.addAll((Collection<? extends DataType>) Arrays.asList(Arrays.copyOfRange(array, fromIndex, toIndex)));
-        return sublist;
+        return view(name + " (Sublist)", offset + fromIndex * step, step, slots, toIndex - fromIndex);
     }
 
-    @SuppressWarnings("unchecked")
     public Stream<DataType> stream() {
-        return Arrays.stream(array, 0, size).map(obj -> (DataType) obj);
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    // Only runs in parallel once the list is long enough to be worth splitting
+    public Stream<DataType> parallelStream() {
+        return StreamSupport.stream(spliterator(), isParallel());
+    }
+
+    private boolean isParallel() {
+        return size >= PARALLEL_THRESHOLD;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Spliterator<DataType> spliterator() {
+        // SIZED and SUBSIZED, so splits are exact halves of the array
+        if (isContiguous()) return (Spliterator<DataType>) Spliterators.spliterator(array, 0, size, Spliterator.ORDERED);
+        return new ViewSpliterator(0, size);
+    }
+
+    private class ViewSpliterator implements Spliterator<DataType> {
+        private int index;
+        private final int fence;
+
+        private ViewSpliterator(int origin, int fence) {
+            this.index = origin;
+            this.fence = fence;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean tryAdvance(Consumer<? super DataType> action) {
+            if (index >= fence) return false;
+            action.accept((DataType) element(index++));
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void forEachRemaining(Consumer<? super DataType> action) {
+            for (; index < fence; index++) action.accept((DataType) element(index));
+        }
+
+        @Override
+        public Spliterator<DataType> trySplit() {
+            int middle = (index + fence) >>> 1;
+            if (middle <= index) return null;
+            Spliterator<DataType> prefix = new ViewSpliterator(index, middle);
+            index = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
     }
 
     @Override
@@ -450,6 +649,11 @@ public class DynamicList<DataType> implements Iterable<DataType>, Serializable,
         };
     }
 
+    @FunctionalInterface
+    public interface KeyExtractor<DataType> {
+        String getComparator(DataType element);
+    }
+
     public enum COLOUR {
         GOLD("\u001B[38;2;204;173;0m"),
         SILVER("\u001B[38;2;202;202;202m"),
@@ -0,0 +1,89 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Walks the transactions of one PostingList that match a Request.History, oldest first
+// Offsets and time stamps only grow along a PostingList, so where to start is found by binary search and the walk
+// ends at the first transaction past the end of the range, nothing before or after it is read
+// getKey is the Ledger offset of the last transaction returned. A cursor opened after that key carries on from the
+// next match (keyset pagination), whatever has been posted in between
+public class HistoryCursor implements Iterator<Transaction> {
+    public static final int START = -1; // Key before every transaction
+
+    private final Ledger ledger;
+    private final PostingList postings;
+    private final long toTimeStamp;
+    private final long minAmount;
+    private final long maxAmount;
+    private final int counterparty; // Ordinal, -1 for any
+    private int index; // Next position in the PostingList to look at
+    private int nextOffset; // Matched but not yet returned, -1 for none
+    private boolean finished;
+    private int key;
+
+    HistoryCursor(Ledger ledger, PostingList postings, Request.History query, int after) {
+        this.ledger = ledger;
+        this.postings = postings;
+        this.toTimeStamp = query.to() == null ? Long.MAX_VALUE : Ledger.toMillis(query.to());
+        this.minAmount = query.minAmount() == null ? Long.MIN_VALUE : query.minAmount();
+        this.maxAmount = query.maxAmount() == null ? Long.MAX_VALUE : query.maxAmount();
+        this.counterparty = query.counterparty() == null ? -1 : query.counterparty().getOrdinal();
+        this.nextOffset = -1;
+        this.finished = false;
+        this.key = after;
+
+        int start = after == START ? 0 : firstAfter(after);
+        if (query.from() != null) start = Math.max(start, firstAtOrAfter(Ledger.toMillis(query.from())));
+        this.index = start;
+    }
+
+    // Lowest position holding an offset greater than offset
+    private int firstAfter(int offset) {
+        int low = 0, high = postings.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (postings.get(middle) <= offset) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    // Lowest position holding a transaction at or after timeStamp
+    private int firstAtOrAfter(long timeStamp) {
+        int low = 0, high = postings.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ledger.getTimeStamp(postings.get(middle)) < timeStamp) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (nextOffset == -1 && !finished && index < postings.size()) {
+            int offset = postings.get(index++);
+            if (ledger.getTimeStamp(offset) >= toTimeStamp) finished = true;
+            else if (ledger.matches(offset, minAmount, maxAmount, counterparty)) nextOffset = offset;
+        }
+        return nextOffset != -1;
+    }
+
+    @Override
+    public Transaction next() {
+        if (!hasNext()) throw new NoSuchElementException("Error: No more transactions in the history");
+        key = nextOffset;
+        nextOffset = -1;
+        return ledger.get(key);
+    }
+
+    // Up to limit more transactions, fewer only once the history runs out
+    public DynamicList<Transaction> next(int limit) {
+        DynamicList<Transaction> page = new DynamicList<>("History", Transaction::getId);
+        while (page.size() < limit && hasNext()) page.add(next());
+        return page;
+    }
+
+    public int getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Transaction history left in the mapped snapshot, read only when something asks for it
+// Positions are relative to the start of the history section, which is only known once everything before it is read
+public class HistoryStore {
+    private final SegmentedCipher.Mapped source;
+    private long base;
+    private long length; // Up to the end of the Ledger rows, the references after them are not counted
+
+    public HistoryStore(SegmentedCipher.Mapped source) {
+        this.source = source;
+        this.base = -1;
+        this.length = 0;
+    }
+
+    long getLength() {
+        return length;
+    }
+
+    void setLength(long length) {
+        this.length = length;
+    }
+
+    long getBase() {
+        return base;
+    }
+
+    void setBase(long base) {
+        this.base = base;
+    }
+
+    // Callers of the Ledger and PostingLists have no way to recover from a damaged snapshot, so failures are unchecked
+    public ByteBuffer read(long position, int count) {
+        if (base < 0) throw new IllegalStateException("Error: HistoryStore read before its base was set");
+        try {
+            return source.read(base + position, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int readInt(long position) {
+        return read(position, 4).getInt();
+    }
+
+    // [int length][UTF-8 bytes]
+    public String readString(long position) {
+        int length = readInt(position);
+        return StandardCharsets.UTF_8.decode(read(position + 4, length)).toString();
+    }
+}
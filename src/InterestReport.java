@@ -0,0 +1,72 @@
+import java.time.LocalDate;
+
+// Totals from one interest run, each slice of Accounts fills its own and they are added together at the end
+public class InterestReport {
+    private final LocalDate day;
+    private int paid;
+    private int skipped; // Not ACTIVE, already paid to the day or owed less than a penny so far
+    private int unpaid; // Their Bank could not afford it, left for the next run
+    private long amount; // Pence
+    private long millis;
+
+    public InterestReport(LocalDate day) {
+        this.day = day;
+        this.paid = 0;
+        this.skipped = 0;
+        this.unpaid = 0;
+        this.amount = 0;
+        this.millis = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Interest to " + day + ": " + paid + " " + Utility.formatPlural("Account", paid) + " paid "
+                + Utility.formatMoney(amount) + ", " + skipped + " skipped"
+                + (unpaid > 0 ? ", " + unpaid + " left unpaid as their Bank can NOT afford it" : "")
+                + " taking " + millis + " ms";
+    }
+
+    public void addPaid(long amount) {
+        paid++;
+        this.amount += amount;
+    }
+
+    public void addSkipped() {
+        skipped++;
+    }
+
+    public void addUnpaid() {
+        unpaid++;
+    }
+
+    public void add(InterestReport slice) {
+        paid += slice.paid;
+        skipped += slice.skipped;
+        unpaid += slice.unpaid;
+        amount += slice.amount;
+    }
+
+    public void setMillis(long millis) {
+        this.millis = millis;
+    }
+
+    public LocalDate getDay() {
+        return day;
+    }
+
+    public int getPaid() {
+        return paid;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public int getUnpaid() {
+        return unpaid;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+}
@@ -0,0 +1,487 @@
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Append-only log of every Mutation since the last snapshot, so a save costs the size of the change
+// Each record is sealed on its own with AES-GCM: [int length][long sequence][12 byte nonce][ciphertext + tag]
+// Inside each record: [byte type][fields]
+// The sequence is authenticated with the record and each one follows on from the last, so a record can not be moved,
+// dropped or replayed from elsewhere without replay noticing
+public class Journal {
+    private static final int MAGIC = 0x42444A31; // "BDJ1"
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int HEADER_LENGTH = 4;
+    private static final int SEQUENCE_LENGTH = 8;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 128; // Bits
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+    private static final int FLUSH_THRESHOLD = 1 << 16; // Pending bytes written out early, still only forced on commit
+
+    private static final byte BANK_ADDED = 1;
+    private static final byte USER_ADDED = 2;
+    private static final byte USER_REMOVED = 3;
+    private static final byte USER_LOCK_CHANGED = 4;
+    private static final byte ACCOUNT_ADDED = 5;
+    private static final byte ACCOUNT_STATUS_CHANGED = 6;
+    private static final byte CONNECTION_ADDED = 7;
+    private static final byte TRANSFER_POSTED = 8;
+    private static final byte PASSWORD_REHASHED = 9;
+    private static final byte INTEREST_PAID = 10;
+    private static final byte STANDING_ORDER_ADDED = 11;
+    private static final byte STANDING_ORDER_CANCELLED = 12;
+    private static final byte STANDING_ORDER_RAN = 13;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final KeyManager keys;
+    private final SecureRandom random;
+    private final ByteArrayOutputStream pending;
+    private final Map<Long, byte[]> sealedAhead; // Sealed before a record in front of them, by sequence
+    private long sequence; // Last reserved
+    private long buffered; // Last in pending or on disk, every record up to it has been
+    private IOException failure;
+    private int size; // Records since the last snapshot
+
+    private Journal(Path path, FileChannel channel, KeyManager keys) {
+        this.path = path;
+        this.channel = channel;
+        this.keys = keys;
+        this.random = new SecureRandom();
+        this.pending = new ByteArrayOutputStream();
+        this.sealedAhead = new HashMap<>();
+        this.sequence = 0;
+        this.buffered = 0;
+        this.size = 0;
+    }
+
+    public static Journal open(String fileName, KeyManager keys) throws IOException {
+        Path path = Paths.get(fileName);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Journal journal = new Journal(path, channel, keys);
+
+        if (channel.size() < HEADER_LENGTH) {
+            journal.writeHeader();
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            channel.read(header, 0);
+            if (header.getInt(0) != MAGIC) {
+                channel.close();
+                throw new IOException("Error: '" + fileName + "' is not a Journal");
+            }
+        }
+        return journal;
+    }
+
+    private void writeHeader() throws IOException {
+        channel.truncate(0);
+        channel.write(ByteBuffer.allocate(HEADER_LENGTH).putInt(0, MAGIC), 0);
+        channel.force(true);
+        channel.position(HEADER_LENGTH);
+    }
+
+    // Hands every record after the given sequence to the consumer, in order
+    // The Journal may still start with records the snapshot holds, if a crash came before it was reset, but must carry
+    // on without a gap from there
+    // Only the last record can have been torn by a crashed write, so the Journal is cut back to just before it. A bad
+    // record anywhere before that means the wrong key or a damaged file, and nothing is replayed past it
+    public synchronized int replay(long afterSequence, Consumer<Mutation> consumer) throws IOException {
+        long position = HEADER_LENGTH;
+        long end = channel.size();
+        int replayed = 0;
+        sequence = afterSequence;
+        size = 0;
+
+        long previous = -1;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position))));
+        while (position + 4 <= end) {
+            int length = in.readInt();
+            if (!isValidLength(length) || position + 4 + length > end) {
+                if (hasRecordAfter(position, end)) throw new IOException("Error: Journal record at byte " + position + " has a bad length " + length);
+                break;
+            }
+            long recordSequence = in.readLong();
+            byte[] nonce = new byte[NONCE_LENGTH];
+            in.readFully(nonce);
+            byte[] sealed = new byte[length - SEQUENCE_LENGTH - NONCE_LENGTH];
+            in.readFully(sealed);
+
+            byte[] plain;
+            try {
+                plain = open(recordSequence, nonce, sealed);
+            } catch (GeneralSecurityException e) {
+                if (position + 4 + length < end) throw new IOException("Error: Journal record at byte " + position + " failed to decrypt", e);
+                break;
+            }
+            long expected = previous < 0 ? afterSequence + 1 : previous + 1;
+            if (previous < 0 ? recordSequence > expected : recordSequence != expected) {
+                throw new IOException("Error: Journal record at byte " + position + " is number " + recordSequence + ", expected " + expected);
+            }
+            position += 4 + length;
+            previous = recordSequence;
+
+            Mutation mutation = read(new DataInputStream(new ByteArrayInputStream(plain)));
+            size++;
+            if (recordSequence > afterSequence) {
+                consumer.accept(mutation);
+                sequence = recordSequence;
+                replayed++;
+            }
+        }
+
+        if (position < end) {
+            Utility.printError("Journal '" + path + "' cut back from " + end + " to " + position + " bytes");
+            channel.truncate(position);
+            channel.force(true);
+        }
+        channel.position(position);
+        buffered = sequence;
+        // Every record is already in the snapshot, so the next one appended would not follow on from the last
+        if (replayed == 0 && size > 0) {
+            writeHeader();
+            size = 0;
+        }
+        return replayed;
+    }
+
+    private static boolean isValidLength(int length) {
+        return length > SEQUENCE_LENGTH + NONCE_LENGTH && length <= MAX_RECORD_LENGTH;
+    }
+
+    private static byte[] associatedData(long sequence) {
+        return ByteBuffer.allocate(SEQUENCE_LENGTH).putLong(sequence).array();
+    }
+
+    private byte[] open(long sequence, byte[] nonce, byte[] sealed) throws GeneralSecurityException {
+        Cipher cipher = keys.getCipher(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, keys.getKey(), new GCMParameterSpec(TAG_LENGTH, nonce));
+        cipher.updateAAD(associatedData(sequence));
+        return cipher.doFinal(sealed);
+    }
+
+    // Whether a whole record that decrypts starts anywhere after the bad one at position, so it was not the last
+    // Only run when replay finds a bad record, most offsets are passed over by their length alone
+    private boolean hasRecordAfter(long position, long end) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate((int) (end - position));
+        while (tail.hasRemaining()) {
+            if (channel.read(tail, position + tail.position()) < 0) break;
+        }
+        for (int offset = 1; offset + 4 <= tail.limit(); offset++) {
+            int length = tail.getInt(offset);
+            if (!isValidLength(length) || offset + 4 + length > tail.limit()) continue;
+            byte[] nonce = new byte[NONCE_LENGTH];
+            byte[] sealed = new byte[length - SEQUENCE_LENGTH - NONCE_LENGTH];
+            tail.get(offset + 4 + SEQUENCE_LENGTH, nonce).get(offset + 4 + SEQUENCE_LENGTH + NONCE_LENGTH, sealed);
+            try {
+                open(tail.getLong(offset + 4), nonce, sealed);
+                return true;
+            } catch (GeneralSecurityException e) {
+                // Not a record boundary
+            }
+        }
+        return false;
+    }
+
+    // A record given its place in the Journal by reserve, waiting to be sealed
+    public static final class Entry {
+        private final long sequence;
+        private final byte[] plain;
+
+        private Entry(long sequence, byte[] plain) {
+            this.sequence = sequence;
+            this.plain = plain;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+    // Buffered until commit, returns the sequence number given to the record
+    public long append(Mutation mutation) {
+        Entry entry = reserve(mutation);
+        seal(entry);
+        return entry.sequence;
+    }
+
+    // Gives the record the next sequence number, so a caller reserving it under the locks its change was made under
+    // fixes its place among the changes made under the same locks. The sealing is left to seal, after they are released
+    // Only the numbering is done under the Journal's lock
+    public Entry reserve(Mutation mutation) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(new DataOutputStream(bytes), mutation);
+        } catch (IOException e) {
+            throw new IllegalStateException("Error: Could not append to Journal '" + path + "'", e);
+        }
+        synchronized (this) {
+            size++;
+            return new Entry(++sequence, bytes.toByteArray());
+        }
+    }
+
+    // Encrypts outside the Journal's lock, so records are sealed alongside each other. Each is buffered once every
+    // record before it has been, so the Journal is still written in sequence order
+    public void seal(Entry entry) {
+        byte[] frame;
+        try {
+            byte[] nonce = new byte[NONCE_LENGTH];
+            random.nextBytes(nonce);
+            Cipher cipher = keys.getCipher(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, keys.getKey(), new GCMParameterSpec(TAG_LENGTH, nonce));
+            cipher.updateAAD(associatedData(entry.sequence));
+            byte[] sealed = cipher.doFinal(entry.plain);
+
+            frame = ByteBuffer.allocate(4 + SEQUENCE_LENGTH + NONCE_LENGTH + sealed.length)
+                    .putInt(SEQUENCE_LENGTH + NONCE_LENGTH + sealed.length).putLong(entry.sequence).put(nonce).put(sealed).array();
+        } catch (GeneralSecurityException e) {
+            fail(entry, e);
+            throw new IllegalStateException("Error: Could not append to Journal '" + path + "'", e);
+        }
+
+        synchronized (this) {
+            sealedAhead.put(entry.sequence, frame);
+            while ((frame = sealedAhead.remove(buffered + 1)) != null) {
+                pending.writeBytes(frame);
+                buffered++;
+            }
+            notifyAll();
+            try {
+                if (pending.size() >= FLUSH_THRESHOLD) flush();
+            } catch (IOException e) {
+                // Reported by the next commit
+                if (failure == null) failure = e;
+            }
+        }
+    }
+
+    // Every record after it is held back until a snapshot replaces the Journal, and each commit fails until then
+    private synchronized void fail(Entry entry, Exception e) {
+        if (failure == null) failure = new IOException("Error: Journal record " + entry.sequence + " could not be sealed", e);
+        notifyAll();
+    }
+
+    private void flush() throws IOException {
+        if (pending.size() == 0) return;
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+        while (buffer.hasRemaining()) channel.write(buffer);
+        pending.reset();
+    }
+
+    // Records reserved but still being sealed on other threads
+    private void awaitSealed() throws IOException {
+        try {
+            while (buffered < sequence && failure == null) wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Error: Interrupted waiting for the Journal to be sealed");
+        }
+    }
+
+    // Every record appended so far is on disk once this returns
+    public synchronized void commit() throws IOException {
+        awaitSealed();
+        if (failure != null) throw failure;
+        flush();
+        channel.force(false);
+    }
+
+    // Called once a snapshot holding every record up to the current sequence is safely written, so whatever the
+    // Journal still holds, even a record that could not be sealed, is no longer needed
+    public synchronized void reset() throws IOException {
+        awaitSealed();
+        pending.reset();
+        sealedAhead.clear();
+        buffered = sequence;
+        failure = null;
+        writeHeader();
+        size = 0;
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void close() throws IOException {
+        commit();
+        channel.close();
+    }
+
+    // ENCODING
+
+    private static void write(DataOutputStream out, Mutation mutation) throws IOException {
+        if (mutation instanceof Mutation.BankAdded m) {
+            out.writeByte(BANK_ADDED);
+            out.writeUTF(m.id());
+            out.writeUTF(m.name());
+            out.writeUTF(m.sortCode());
+            out.writeInt(m.interestRate());
+            out.writeInt(m.transactionCharge());
+            out.writeLong(m.initialBalance());
+        } else if (mutation instanceof Mutation.UserAdded m) {
+            out.writeByte(USER_ADDED);
+            out.writeUTF(m.id());
+            out.writeUTF(m.username());
+            m.password().write(out);
+            out.writeByte(m.securityQuestions().length);
+            for (SecurityQuestion securityQuestion : m.securityQuestions()) securityQuestion.write(out);
+            out.writeUTF(m.title());
+            out.writeUTF(m.fullName());
+            out.writeLong(Ledger.toMillis(m.unlockTime()));
+        } else if (mutation instanceof Mutation.UserRemoved m) {
+            out.writeByte(USER_REMOVED);
+            out.writeUTF(m.userId());
+        } else if (mutation instanceof Mutation.UserLockChanged m) {
+            out.writeByte(USER_LOCK_CHANGED);
+            out.writeUTF(m.userId());
+            out.writeLong(Ledger.toMillis(m.unlockTime()));
+            out.writeInt(m.numberOfTimesLocked());
+        } else if (mutation instanceof Mutation.PasswordRehashed m) {
+            out.writeByte(PASSWORD_REHASHED);
+            out.writeUTF(m.userId());
+            writeNullable(out, m.securityQuestionId());
+            m.password().write(out);
+        } else if (mutation instanceof Mutation.AccountAdded m) {
+            out.writeByte(ACCOUNT_ADDED);
+            out.writeUTF(m.id());
+            out.writeUTF(m.sortCode());
+            out.writeUTF(m.type().name());
+            out.writeUTF(m.number());
+            out.writeLong(m.initialBalance());
+            out.writeByte(m.userIds().length);
+            for (String userId : m.userIds()) out.writeUTF(userId);
+            out.writeLong(Ledger.toMillis(m.createdAt()));
+        } else if (mutation instanceof Mutation.AccountStatusChanged m) {
+            out.writeByte(ACCOUNT_STATUS_CHANGED);
+            out.writeUTF(m.accountId());
+            out.writeUTF(m.status().name());
+        } else if (mutation instanceof Mutation.ConnectionAdded m) {
+            out.writeByte(CONNECTION_ADDED);
+            out.writeUTF(m.id());
+            out.writeUTF(m.userId());
+            out.writeUTF(m.toAccountId());
+            writeNullable(out, m.reference());
+        } else if (mutation instanceof Mutation.TransferPosted m) {
+            out.writeByte(TRANSFER_POSTED);
+            out.writeUTF(m.id());
+            out.writeUTF(m.sortCode());
+            out.writeUTF(m.fromAccountId());
+            out.writeUTF(m.toAccountId());
+            out.writeLong(m.amount());
+            out.writeLong(m.charge());
+            out.writeLong(Ledger.toMillis(m.timeStamp()));
+            writeNullable(out, m.reference());
+        } else if (mutation instanceof Mutation.InterestPaid m) {
+            out.writeByte(INTEREST_PAID);
+            out.writeUTF(m.id());
+            out.writeUTF(m.sortCode());
+            out.writeUTF(m.accountId());
+            out.writeLong(m.amount());
+            out.writeLong(m.paidTo().toEpochDay());
+            out.writeLong(Ledger.toMillis(m.timeStamp()));
+        } else if (mutation instanceof Mutation.StandingOrderAdded m) {
+            out.writeByte(STANDING_ORDER_ADDED);
+            out.writeUTF(m.id());
+            out.writeUTF(m.sortCode());
+            out.writeUTF(m.userId());
+            out.writeUTF(m.fromAccountId());
+            out.writeUTF(m.connectionId());
+            out.writeLong(m.amount());
+            writeNullable(out, m.reference());
+            writeNullable(out, m.interval() == null ? null : m.interval().toString());
+            out.writeLong(Ledger.toMillis(m.firstDue()));
+        } else if (mutation instanceof Mutation.StandingOrderCancelled m) {
+            out.writeByte(STANDING_ORDER_CANCELLED);
+            out.writeUTF(m.id());
+            out.writeUTF(m.sortCode());
+        } else if (mutation instanceof Mutation.StandingOrderRan m) {
+            out.writeByte(STANDING_ORDER_RAN);
+            out.writeUTF(m.id());
+            out.writeUTF(m.sortCode());
+        } else {
+            throw new IllegalArgumentException("Error: Unknown Mutation '" + mutation + "'");
+        }
+    }
+
+    private static Mutation read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case BANK_ADDED:
+                return new Mutation.BankAdded(in.readUTF(), in.readUTF(), in.readUTF(), in.readInt(), in.readInt(), in.readLong());
+            case USER_ADDED: {
+                String id = in.readUTF();
+                String username = in.readUTF();
+                Password password = Password.read(in);
+                SecurityQuestion[] securityQuestions = new SecurityQuestion[in.readUnsignedByte()];
+                for (int i = 0; i < securityQuestions.length; i++) securityQuestions[i] = SecurityQuestion.read(in);
+                return new Mutation.UserAdded(id, username, password, securityQuestions, in.readUTF(), in.readUTF(), Ledger.toTime(in.readLong()));
+            }
+            case USER_REMOVED:
+                return new Mutation.UserRemoved(in.readUTF());
+            case USER_LOCK_CHANGED:
+                return new Mutation.UserLockChanged(in.readUTF(), Ledger.toTime(in.readLong()), in.readInt());
+            case PASSWORD_REHASHED:
+                return new Mutation.PasswordRehashed(in.readUTF(), readNullable(in), Password.read(in));
+            case ACCOUNT_ADDED: {
+                String id = in.readUTF();
+                String sortCode = in.readUTF();
+                AccountType accountType = AccountType.valueOf(in.readUTF());
+                String number = in.readUTF();
+                long initialBalance = in.readLong();
+                String[] userIds = new String[in.readUnsignedByte()];
+                for (int i = 0; i < userIds.length; i++) userIds[i] = in.readUTF();
+                return new Mutation.AccountAdded(id, sortCode, accountType, number, initialBalance, userIds, Ledger.toTime(in.readLong()));
+            }
+            case ACCOUNT_STATUS_CHANGED:
+                return new Mutation.AccountStatusChanged(in.readUTF(), Status.valueOf(in.readUTF()));
+            case CONNECTION_ADDED:
+                return new Mutation.ConnectionAdded(in.readUTF(), in.readUTF(), in.readUTF(), readNullable(in));
+            case TRANSFER_POSTED:
+                return new Mutation.TransferPosted(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), Ledger.toTime(in.readLong()), readNullable(in));
+            case INTEREST_PAID:
+                return new Mutation.InterestPaid(in.readUTF(), in.readUTF(), in.readUTF(), in.readLong(), LocalDate.ofEpochDay(in.readLong()), Ledger.toTime(in.readLong()));
+            case STANDING_ORDER_ADDED: {
+                String id = in.readUTF();
+                String sortCode = in.readUTF();
+                String userId = in.readUTF();
+                String fromAccountId = in.readUTF();
+                String connectionId = in.readUTF();
+                long amount = in.readLong();
+                String reference = readNullable(in);
+                String interval = readNullable(in);
+                return new Mutation.StandingOrderAdded(id, sortCode, userId, fromAccountId, connectionId, amount, reference, interval == null ? null : Period.parse(interval), Ledger.toTime(in.readLong()));
+            }
+            case STANDING_ORDER_CANCELLED:
+                return new Mutation.StandingOrderCancelled(in.readUTF(), in.readUTF());
+            case STANDING_ORDER_RAN:
+                return new Mutation.StandingOrderRan(in.readUTF(), in.readUTF());
+            default:
+                throw new IOException("Error: Unknown Journal record type " + type);
+        }
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) out.writeUTF(value);
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,128 @@
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Holds the database key, stretched from the password once per process rather than on every save and load
+// Ciphers are costly to look up, so each thread keeps one per transformation and re-initialises it per use
+public class KeyManager {
+    private static final int ITERATIONS = 65536;
+    private static final int KEY_LENGTH = 256; // Bits
+    private static final byte[] SALT = "salt".getBytes(); // Fixed, so existing bankDatabase.ser files still open
+
+    // Process wide, so the cost of every key stretch shows up however many managers are made
+    private static final AtomicLong derivations = new AtomicLong();
+    private static final AtomicLong derivationNanos = new AtomicLong();
+
+    private final ThreadLocal<Map<String, Cipher>> ciphers = ThreadLocal.withInitial(HashMap::new);
+    private DatabaseKey key;
+
+    // The one copy of the key this class keeps, handed to Ciphers as it is so close can wipe it
+    // A SecretKeySpec would take a copy of its own that nothing could wipe
+    @SuppressWarnings("serial")
+    private static final class DatabaseKey implements SecretKey {
+        private final byte[] bytes;
+        private volatile boolean destroyed;
+
+        private DatabaseKey(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "AES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            if (destroyed) throw new IllegalStateException("Error: KeyManager has been closed");
+            return bytes.clone();
+        }
+
+        @Override
+        public void destroy() {
+            Arrays.fill(bytes, (byte) 0);
+            destroyed = true;
+        }
+
+        @Override
+        public boolean isDestroyed() {
+            return destroyed;
+        }
+    }
+
+    private KeyManager(byte[] keyBytes) {
+        this.key = new DatabaseKey(keyBytes);
+    }
+
+    public static KeyManager derive(String password) {
+        long start = System.nanoTime();
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), SALT, ITERATIONS, KEY_LENGTH);
+        try {
+            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            // The provider's key can not be destroyed, it is only cleared once it is collected. Its encoded copy
+            // becomes the one this manager keeps
+            return new KeyManager(factory.generateSecret(spec).getEncoded());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error: Could not derive database key", e);
+        } finally {
+            spec.clearPassword();
+            long nanos = System.nanoTime() - start;
+            derivations.incrementAndGet();
+            derivationNanos.addAndGet(nanos);
+            Utility.printLog("Derived database key in %d ms", nanos / 1_000_000);
+        }
+    }
+
+    public synchronized SecretKey getKey() {
+        if (key == null) throw new IllegalStateException("Error: KeyManager has been closed");
+        return key;
+    }
+
+    // Not shared between threads, callers must init it before each use
+    public Cipher getCipher(String transformation) throws GeneralSecurityException {
+        Map<String, Cipher> threadCiphers = ciphers.get();
+        Cipher cipher = threadCiphers.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation);
+            threadCiphers.put(transformation, cipher);
+        }
+        return cipher;
+    }
+
+    // Wipes this manager's copy of the key, it can not be used after. Ciphers initialised with it still hold the key
+    // schedule they built from it until they are collected, only this thread's are let go of here
+    public synchronized void close() {
+        if (key != null) key.destroy();
+        key = null;
+        ciphers.remove();
+    }
+
+    // METRICS
+
+    public static long getDerivations() {
+        return derivations.get();
+    }
+
+    public static Duration getDerivationTime() {
+        return Duration.ofNanos(derivationNanos.get());
+    }
+
+    public static String getMetrics() {
+        long count = getDerivations();
+        long millis = getDerivationTime().toMillis();
+        return count + " Key " + Utility.formatPlural("Derivation", (int) count) + " taking " + millis + " ms"
+                + (count > 0 ? " (" + (millis / count) + " ms each)" : "");
+    }
+}
@@ -0,0 +1,310 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// Append-only store of every transaction, one primitive array per field
+// Accounts and Banks keep PostingLists of offsets into it
+// Every method locks the Ledger, it is always the last lock taken so can not deadlock
+// After a snapshot load the first historySize rows stay in the HistoryStores they were loaded from, chunkRows to each,
+// and are read a row at a time. Only rows posted since are held in the arrays (at offset - historySize)
+// Time stamps never go backwards along the Ledger, so the offsets in any PostingList are in time order too
+public class Ledger {
+    private static final int DEFAULT_CAPACITY = 64;
+    private static final String NO_REFERENCE = "No Reference";
+    // Fixed width rows in the snapshot: id high, id low, from, to, amount, charge, time stamp, reference position
+    public static final int ROW_LENGTH = 8 + 8 + 4 + 4 + 8 + 8 + 8 + 4;
+    // In the from column of a payment the Bank makes itself, such as interest, in place of an Account ordinal
+    public static final int BANK = -1;
+
+    // Ordinal -> Account, ordinals are what the from/to columns hold
+    private final DynamicList<Account> accounts;
+
+    private HistoryStore[] chunks;
+    private long[] chunkPositions; // Where the rows of each chunk start in its HistoryStore, its references follow them
+    private int chunkRows;
+    private int historySize;
+
+    private long[] idHighs;
+    private long[] idLows;
+    private int[] fromAccounts;
+    private int[] toAccounts;
+    private long[] amounts; // Pence
+    private long[] charges;
+    private long[] timeStamps; // Epoch millis of the LocalDateTime, read as UTC
+    private String[] references; // null when there is No Reference
+    private int size;
+    private long latestTimeStamp; // Of the last row, a later row stamped earlier (clock change, race before the lock) is moved up to it
+
+    public Ledger() {
+        this.accounts = new DynamicList<>("Ledger Accounts", Account::getId);
+        this.chunks = new HistoryStore[0];
+        this.chunkPositions = new long[0];
+        this.chunkRows = 1;
+        this.historySize = 0;
+        this.idHighs = new long[DEFAULT_CAPACITY];
+        this.idLows = new long[DEFAULT_CAPACITY];
+        this.fromAccounts = new int[DEFAULT_CAPACITY];
+        this.toAccounts = new int[DEFAULT_CAPACITY];
+        this.amounts = new long[DEFAULT_CAPACITY];
+        this.charges = new long[DEFAULT_CAPACITY];
+        this.timeStamps = new long[DEFAULT_CAPACITY];
+        this.references = new String[DEFAULT_CAPACITY];
+        this.size = 0;
+        this.latestTimeStamp = Long.MIN_VALUE;
+    }
+
+    // Returns the ordinal the Account is recorded under
+    // An id already registered would otherwise be refused by the list and hand back another Account's ordinal
+    public synchronized int register(Account account) {
+        if (isRegistered(account.getId())) throw new IllegalArgumentException("Error: Account " + account.getId() + " is already registered with the Ledger");
+        accounts.add(account);
+        return accounts.size() - 1;
+    }
+
+    public synchronized boolean isRegistered(String id) {
+        return accounts.containsKey(id);
+    }
+
+    public synchronized Account getAccount(int ordinal) {
+        return accounts.get(ordinal);
+    }
+
+    public synchronized int getNumberOfAccounts() {
+        return accounts.size();
+    }
+
+    public synchronized Account getAccount(String id) {
+        return accounts.get(id);
+    }
+
+    // Returns the offset of the new transaction, a null fromAccount is the Bank paying
+    // Rows are never removed, a transfer that is rolled back leaves its row unreferenced by any PostingList
+    public synchronized int post(String id, Account fromAccount, Account toAccount, long amount, long charge, LocalDateTime timeStamp, String reference) {
+        int row = size - historySize;
+        ensureCapacity(row + 1);
+
+        UUID uuid = UUID.fromString(id);
+        idHighs[row] = uuid.getMostSignificantBits();
+        idLows[row] = uuid.getLeastSignificantBits();
+        fromAccounts[row] = fromAccount == null ? BANK : fromAccount.getOrdinal();
+        toAccounts[row] = toAccount.getOrdinal();
+        amounts[row] = amount;
+        charges[row] = charge;
+        latestTimeStamp = Math.max(latestTimeStamp, toMillis(timeStamp));
+        timeStamps[row] = latestTimeStamp;
+        references[row] = reference == null || reference.isEmpty() || reference.equals(NO_REFERENCE) ? null : reference;
+        return size++;
+    }
+
+    private void ensureCapacity(int requiredSize) {
+        if (requiredSize > amounts.length) {
+            int newCapacity = Math.max(amounts.length * 2, requiredSize);
+            idHighs = Arrays.copyOf(idHighs, newCapacity);
+            idLows = Arrays.copyOf(idLows, newCapacity);
+            fromAccounts = Arrays.copyOf(fromAccounts, newCapacity);
+            toAccounts = Arrays.copyOf(toAccounts, newCapacity);
+            amounts = Arrays.copyOf(amounts, newCapacity);
+            charges = Arrays.copyOf(charges, newCapacity);
+            timeStamps = Arrays.copyOf(timeStamps, newCapacity);
+            references = Arrays.copyOf(references, newCapacity);
+        }
+    }
+
+    private void checkOffset(int offset) {
+        if (offset < 0 || offset >= size) {
+            throw new IndexOutOfBoundsException("Error: Index out of bounds for Ledger while trying to get offset " + offset + " for length " + size);
+        }
+    }
+
+    // The snapshot row for an offset below historySize, positioned at its first field
+    private ByteBuffer historyRow(int offset) {
+        int chunk = offset / chunkRows;
+        return chunks[chunk].read(chunkPositions[chunk] + (long) (offset % chunkRows) * ROW_LENGTH, ROW_LENGTH);
+    }
+
+    private String historyReference(int offset, int referencePosition) {
+        if (referencePosition < 0) return null;
+        int chunk = offset / chunkRows;
+        int rows = Math.min(chunkRows, historySize - chunk * chunkRows);
+        return chunks[chunk].readString(chunkPositions[chunk] + (long) rows * ROW_LENGTH + referencePosition);
+    }
+
+    // Signed change to the balance of the Account with this ordinal
+    public synchronized long getAmount(int offset, int ordinal) {
+        checkOffset(offset);
+        if (offset < historySize) {
+            ByteBuffer row = historyRow(offset);
+            int from = row.getInt(16);
+            long amount = row.getLong(24);
+            if (from == ordinal) return -1 * (amount + row.getLong(32));
+            return amount;
+        }
+        int row = offset - historySize;
+        if (fromAccounts[row] == ordinal) return -1 * (amounts[row] + charges[row]);
+        return amounts[row];
+    }
+
+    public synchronized long getCharge(int offset) {
+        checkOffset(offset);
+        if (offset < historySize) return historyRow(offset).getLong(32);
+        return charges[offset - historySize];
+    }
+
+    // Signed change to the balance of the Bank the transaction went through, its charge less anything it paid out
+    public synchronized long getBankAmount(int offset) {
+        checkOffset(offset);
+        if (offset < historySize) {
+            ByteBuffer row = historyRow(offset);
+            return row.getLong(32) - (row.getInt(16) == BANK ? row.getLong(24) : 0);
+        }
+        int row = offset - historySize;
+        return charges[row] - (fromAccounts[row] == BANK ? amounts[row] : 0);
+    }
+
+    // Epoch millis
+    public synchronized long getTimeStamp(int offset) {
+        checkOffset(offset);
+        if (offset < historySize) return historyRow(offset).getLong(40);
+        return timeStamps[offset - historySize];
+    }
+
+    // As it was stored, which may be later than the time it was posted with
+    public synchronized LocalDateTime getTime(int offset) {
+        return toTime(getTimeStamp(offset));
+    }
+
+    // Whether the transaction moved between minAmount and maxAmount (charge not included, both inclusive)
+    // and, unless counterparty is -1, had the Account with that ordinal on either side
+    public synchronized boolean matches(int offset, long minAmount, long maxAmount, int counterparty) {
+        checkOffset(offset);
+        int from, to;
+        long amount;
+        if (offset < historySize) {
+            ByteBuffer row = historyRow(offset);
+            from = row.getInt(16);
+            to = row.getInt(20);
+            amount = row.getLong(24);
+        } else {
+            int row = offset - historySize;
+            from = fromAccounts[row];
+            to = toAccounts[row];
+            amount = amounts[row];
+        }
+        if (amount < minAmount || amount > maxAmount) return false;
+        return counterparty == -1 || from == counterparty || to == counterparty;
+    }
+
+    // Builds a Transaction for display, nothing keeps hold of it
+    public synchronized Transaction get(int offset) {
+        checkOffset(offset);
+
+        long idHigh, idLow, amount, charge, timeStamp;
+        int from, to;
+        String reference;
+        if (offset < historySize) {
+            ByteBuffer row = historyRow(offset);
+            idHigh = row.getLong();
+            idLow = row.getLong();
+            from = row.getInt();
+            to = row.getInt();
+            amount = row.getLong();
+            charge = row.getLong();
+            timeStamp = row.getLong();
+            reference = historyReference(offset, row.getInt());
+        } else {
+            int row = offset - historySize;
+            idHigh = idHighs[row];
+            idLow = idLows[row];
+            from = fromAccounts[row];
+            to = toAccounts[row];
+            amount = amounts[row];
+            charge = charges[row];
+            timeStamp = timeStamps[row];
+            reference = references[row];
+        }
+
+        String id = new UUID(idHigh, idLow).toString();
+        LocalDateTime time = toTime(timeStamp);
+        Account fromAccount = from == BANK ? null : accounts.get(from);
+        Account toAccount = accounts.get(to);
+
+        if (reference == null) return new Transaction(id, fromAccount, toAccount, amount, charge, time);
+        return new Transaction(id, fromAccount, toAccount, amount, charge, time, reference);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    public static LocalDateTime toTime(long millis) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000), Math.floorMod(millis, 1000) * 1_000_000, ZoneOffset.UTC);
+    }
+
+    // SNAPSHOT
+
+    // Rows [from, to) at fixed width, then the reference strings those rows point into (each distinct string once)
+    public synchronized void write(BinaryWriter out, int from, int to) throws IOException {
+        if (from < 0 || from > to || to > size) throw new IndexOutOfBoundsException("Error: Ledger rows " + from + " to " + to + " out of bounds for length " + size);
+        ByteArrayOutputStream referenceBytes = new ByteArrayOutputStream();
+        Map<String, Integer> referencePositions = new HashMap<>();
+
+        for (int offset = from; offset < to; offset++) {
+            if (offset < historySize) {
+                ByteBuffer row = historyRow(offset);
+                out.write(row.array(), 0, ROW_LENGTH - 4);
+                String reference = historyReference(offset, row.getInt(ROW_LENGTH - 4));
+                out.writeInt(referencePosition(reference, referencePositions, referenceBytes));
+            } else {
+                int row = offset - historySize;
+                out.writeLong(idHighs[row]);
+                out.writeLong(idLows[row]);
+                out.writeInt(fromAccounts[row]);
+                out.writeInt(toAccounts[row]);
+                out.writeLong(amounts[row]);
+                out.writeLong(charges[row]);
+                out.writeLong(timeStamps[row]);
+                out.writeInt(referencePosition(references[row], referencePositions, referenceBytes));
+            }
+        }
+        referenceBytes.writeTo(out);
+    }
+
+    private static int referencePosition(String reference, Map<String, Integer> referencePositions, ByteArrayOutputStream referenceBytes) {
+        if (reference == null) return -1;
+        Integer position = referencePositions.get(reference);
+        if (position == null) {
+            position = referenceBytes.size();
+            byte[] bytes = reference.getBytes(StandardCharsets.UTF_8);
+            referenceBytes.writeBytes(ByteBuffer.allocate(4).putInt(bytes.length).array());
+            referenceBytes.writeBytes(bytes);
+            referencePositions.put(reference, position);
+        }
+        return position;
+    }
+
+    // Into an empty Ledger that every Account has already registered with, nothing is read until it is asked for
+    // Every chunk but the last holds chunkRows rows, each as written by write
+    public synchronized void attach(HistoryStore[] chunks, long[] chunkPositions, int chunkRows, int historySize) {
+        if (size != 0) throw new IllegalStateException("Error: Ledger already holds " + size + " transactions");
+        if (chunkRows < 1 || chunks.length != chunkPositions.length || (long) chunks.length * chunkRows < historySize) {
+            throw new IllegalArgumentException("Error: " + chunks.length + " chunks of " + chunkRows + " rows can not hold " + historySize + " transactions");
+        }
+        this.chunks = chunks;
+        this.chunkPositions = chunkPositions;
+        this.chunkRows = chunkRows;
+        this.historySize = historySize;
+        this.size = historySize;
+        if (historySize > 0) latestTimeStamp = getTimeStamp(historySize - 1);
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Reads a database Java serialized by a release from before the Ledger and rebuilds it in the current model
+// The stream is resolved against the frozen copies of the old classes in the legacy package, then every User, Bank,
+// Account and connection is rebuilt with its old id, and every Transaction is posted to the Ledger oldest first
+// Pounds become pence rounded half up, one Transaction at a time, so a balance can move by a penny or two from
+// the unrounded total it had before. The Ledger is what the new balances are worked out from
+public final class LegacyMigration {
+    private static final Set<String> LEGACY_CLASSES = Set.of("BankDatabase", "User", "Password", "SecurityQuestion", "Bank",
+            "Account", "Transaction", "Connection", "DynamicList", "AccountType", "Status");
+    // Everything an old database holds, anything else in the stream is refused before it is built
+    private static final String FILTER = "legacy.*;java.time.*;java.lang.*;!*";
+
+    private LegacyMigration() {}
+
+    private static class LegacyInputStream extends ObjectInputStream {
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in);
+            setObjectInputFilter(ObjectInputFilter.Config.createFilter(FILTER));
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass descriptor) throws IOException, ClassNotFoundException {
+            if (LEGACY_CLASSES.contains(descriptor.getName())) return Class.forName("legacy." + descriptor.getName());
+            return super.resolveClass(descriptor);
+        }
+    }
+
+    public static BankDatabase read(InputStream in) throws IOException {
+        try (ObjectInputStream objects = new LegacyInputStream(in)) {
+            return migrate((legacy.BankDatabase) objects.readObject());
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Error: Not a Java serialized BankDatabase: " + e.getMessage(), e);
+        }
+    }
+
+    static BankDatabase migrate(legacy.BankDatabase old) throws IOException {
+        Ledger ledger = new Ledger();
+
+        // USERS, listed first and then those removed who still own Accounts
+        Map<legacy.User, User> users = new IdentityHashMap<>();
+        for (legacy.User oldUser : old.getUsers()) users.put(oldUser, migrateUser(oldUser));
+        for (legacy.Bank oldBank : old.getBanks()) {
+            for (legacy.Account oldAccount : oldBank.getAccounts()) {
+                for (legacy.User oldUser : oldAccount.getUsers()) users.computeIfAbsent(oldUser, LegacyMigration::migrateUser);
+            }
+        }
+
+        // BANKS AND ACCOUNTS, registering with the Ledger in the order they were listed
+        DynamicList<Bank> banks = new DynamicList<>("Banks", Bank::getId);
+        Map<legacy.Account, Account> accounts = new IdentityHashMap<>();
+        Map<String, Bank> banksBySortCode = new LinkedHashMap<>();
+        for (legacy.Bank oldBank : old.getBanks()) {
+            Bank bank = new Bank(oldBank.getId(), oldBank.getName(), oldBank.getSortCode(), toBasisPoints(oldBank.getInterestRate()), toBasisPoints(oldBank.getTransactionCharge()),
+                    toPence(oldBank.getInitialBalance()), new DynamicList<>(Utility.formatPossession(oldBank.getName()) + " Accounts", Account::getId), ledger);
+            for (legacy.Account oldAccount : oldBank.getAccounts()) {
+                DynamicList<User> accountUsers = new DynamicList<>("Users", User::getId);
+                for (legacy.User oldUser : oldAccount.getUsers()) accountUsers.add(users.get(oldUser));
+
+                Account account = new Account(oldAccount.getId(), AccountType.valueOf(oldAccount.getType().name()), oldAccount.getNumber(), bank.getSortCode(),
+                        toPence(oldAccount.getInitialBalance()), ledger, accountUsers, oldAccount.getCreatedAt());
+                account.setStatus(Status.valueOf(oldAccount.getStatus().name()));
+                bank.addAccount(account);
+                bank.changeMoney(-1 * account.getInitialBalance());
+                accounts.put(oldAccount, account);
+            }
+            banks.add(bank);
+            banksBySortCode.put(bank.getSortCode(), bank);
+        }
+
+        // USER ACCOUNTS AND CONNECTIONS
+        for (Map.Entry<legacy.User, User> entry : users.entrySet()) {
+            User user = entry.getValue();
+            for (legacy.Account oldAccount : entry.getKey().getAccounts()) {
+                Account account = accounts.get(oldAccount);
+                if (account == null) throw new IOException("Error: " + user.getUsername() + " holds an Account no Bank lists");
+                user.addAccount(account);
+            }
+            for (legacy.Connection oldConnection : entry.getKey().getConnectedAccounts()) {
+                Account toAccount = accounts.get(oldConnection.getToAccount());
+                if (toAccount == null) throw new IOException("Error: " + user.getUsername() + " is connected to an Account no Bank lists");
+                user.addConnection(new Connection(oldConnection.getId(), user, toAccount, oldConnection.getReference()));
+            }
+        }
+
+        // TRANSACTIONS, each held by its Bank and both Accounts, posted once each oldest first
+        Map<String, legacy.Transaction> transactions = new LinkedHashMap<>();
+        for (legacy.Bank oldBank : old.getBanks()) {
+            for (legacy.Transaction transaction : oldBank.getTransactions()) transactions.putIfAbsent(transaction.getId(), transaction);
+            for (legacy.Account oldAccount : oldBank.getAccounts()) {
+                for (legacy.Transaction transaction : oldAccount.getTransactions()) transactions.putIfAbsent(transaction.getId(), transaction);
+            }
+        }
+        List<legacy.Transaction> history = new ArrayList<>(transactions.values());
+        history.sort(Comparator.comparing(legacy.Transaction::getTimeStamp));
+        for (legacy.Transaction transaction : history) post(transaction, accounts, banksBySortCode, ledger);
+
+        int differences = 0;
+        for (Map.Entry<legacy.Account, Account> entry : accounts.entrySet()) {
+            if (toPence(entry.getKey().getBalance()) != entry.getValue().getBalance()) differences++;
+        }
+        for (legacy.Bank oldBank : old.getBanks()) {
+            if (toPence(oldBank.getBalance()) != banksBySortCode.get(oldBank.getSortCode()).getBalance()) differences++;
+        }
+        Utility.printLog("Migrated %d Users, %d Banks, %d Accounts and %d Transactions", users.size(), banks.size(), accounts.size(), history.size());
+        if (differences > 0) Utility.printLog("%d %d moved by rounding each Transaction to whole pence", differences, Utility.formatPlural("Balance", differences));
+
+        DynamicList<User> listedUsers = new DynamicList<>("Users", User::getId);
+        for (legacy.User oldUser : old.getUsers()) listedUsers.add(users.get(oldUser));
+        User loggedInUser = old.getLoggedInUser() == null ? null : users.get(old.getLoggedInUser());
+        return new BankDatabase(listedUsers, banks, ledger, 0, loggedInUser);
+    }
+
+    private static User migrateUser(legacy.User oldUser) {
+        DynamicList<SecurityQuestion> securityQuestions = new DynamicList<>("", SecurityQuestion::getId);
+        for (legacy.SecurityQuestion oldQuestion : oldUser.getSecurityQuestions()) {
+            securityQuestions.add(new SecurityQuestion(oldQuestion.getId(), oldQuestion.getOutput(), oldQuestion.getRegex(), migratePassword(oldQuestion.getAnswer())));
+        }
+        return new User(oldUser.getId(), oldUser.getUsername(), migratePassword(oldUser.getPassword()), securityQuestions, oldUser.getTitle(), oldUser.getFullName(),
+                new DynamicList<>("", Account::getId), new DynamicList<>("", Connection::getId), oldUser.getUnlockTime(), oldUser.getNumberOfTimesLocked());
+    }
+
+    private static Password migratePassword(legacy.Password oldPassword) {
+        return Password.legacy(oldPassword.getSalt(), oldPassword.getHashedPassword(), oldPassword.getAttempts(), oldPassword.getMaxAttempts());
+    }
+
+    // Made whatever the balances are, as it was when it was first posted
+    private static void post(legacy.Transaction transaction, Map<legacy.Account, Account> accounts, Map<String, Bank> banksBySortCode, Ledger ledger) throws IOException {
+        Account fromAccount = accounts.get(transaction.getFromAccount());
+        Account toAccount = accounts.get(transaction.getToAccount());
+        if (fromAccount == null || toAccount == null) throw new IOException("Error: Transaction " + transaction.getId() + " is between Accounts no Bank lists");
+        Bank bank = banksBySortCode.get(fromAccount.getSortCode());
+
+        long charge = toPence(transaction.getCharge());
+        LocalDateTime timeStamp = transaction.getTimeStamp();
+        int offset = ledger.post(transaction.getId(), fromAccount, toAccount, toPence(transaction.getAmount()), charge, timeStamp, transaction.getReference());
+        bank.changeMoney(charge);
+        fromAccount.adjustBalance(ledger.getAmount(offset, fromAccount.getOrdinal()));
+        toAccount.adjustBalance(ledger.getAmount(offset, toAccount.getOrdinal()));
+
+        bank.addTransaction(offset);
+        fromAccount.addTransaction(offset);
+        toAccount.addTransaction(offset);
+    }
+
+    // By the shortest decimal that prints as the double, so 10.005 is £10.01 and not the £10.00 its binary value is nearest
+    private static long toPence(double pounds) {
+        return BigDecimal.valueOf(pounds).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    // 0.015 -> 150
+    private static int toBasisPoints(double fraction) {
+        return BigDecimal.valueOf(fraction).movePointRight(4).setScale(0, RoundingMode.HALF_UP).intValueExact();
+    }
+}
@@ -1,19 +1,53 @@
+import java.io.IOException;
+import java.time.Duration;
+import java.util.zip.Deflater;
+
 public class Main {
     public static BankDatabase bankDatabase = new BankDatabase();
 
     public static int LOAD_LIMIT = 5;
+    public static int SNAPSHOT_INTERVAL = 1000; // Journal records kept before they are folded into a new snapshot
+    public static int COMPRESSION_LEVEL = Deflater.BEST_SPEED; // Snapshot segments are deflated at this level before encryption, 0 to turn it off
+    public static Duration PASSWORD_HASH_TIME = Duration.ofMillis(250); // New and upgraded password hashes are costed to take about this long
+
+    private static final String DATABASE_KEY = "550e8400-e29b-41d4-a716-48465144r0d7";
+    private static final String JOURNAL_FILE_NAME = "bankDatabase.journal";
+    private static KeyManager keys;
 
     public static void main(String[] args) {
-        bankDatabase = Utility.readAndDecryptObject("550e8400-e29b-41d4-a716-48465144r0d7");
+        // Stretched once here, every save and load after reuses it
+        keys = KeyManager.derive(DATABASE_KEY);
+        int cost = Password.calibrate(PASSWORD_HASH_TIME);
+        Utility.printLog("Passwords hashed with %d at a cost of %d", Password.getCurrentAlgorithm(), cost);
+        bankDatabase = Utility.readAndDecryptObject(keys);
 
         if (bankDatabase != null) {
+            try {
+                bankDatabase.attachJournal(Journal.open(JOURNAL_FILE_NAME, keys));
+            } catch (IOException e) {
+                Utility.printError("Error recovering from the Journal: " + e.getMessage());
+                return;
+            }
+
             bankDatabase.updateSecurityQuestions();
+            payStandingOrders();
             while (displayOptions()) {
-                Utility.encryptAndWriteObject(bankDatabase, "550e8400-e29b-41d4-a716-48465144r0d7");
+                // Orders that fell due while the menu was waiting, then only the changes made since the last save are written
+                payStandingOrders();
+                bankDatabase.save(keys, SNAPSHOT_INTERVAL);
             }
+            // Leave a fresh snapshot and an empty Journal behind
+            bankDatabase.save(keys, 0);
         } else {
             Utility.printError("Error reading and decrypting bankDatabase");
         }
+        keys.close();
+    }
+
+    // Pays standing orders that have fallen due, on this thread between menu actions so they never race a change from the menu
+    private static void payStandingOrders() {
+        BankDatabase.OrderRun run = bankDatabase.runDueOrders(Utility.now());
+        if (run.missed() > 0) Utility.printError("Standing Orders: " + run.paid() + " paid, " + run.missed() + " missed");
     }
 
     public static Boolean displayOptions() {
@@ -32,6 +66,11 @@ public class Main {
                 options.add("View Users");
                 options.add("View Banks");
                 options.add("View Detailed Banks");
+                options.add("Verify Balances");
+                options.add("Run Transfer Batch");
+                options.add("Accrue Interest");
+                options.add("View Metrics");
+                options.add("Benchmark Compression");
                 options.add("Remove User");
                 options.add("User Login");
             } else {
@@ -41,7 +80,11 @@ public class Main {
                     options.add("View Account Info");
                     options.add("Change Account Status");
                     options.add("Make Internal Transaction Between Your Accounts");
-                    if (bankDatabase.getNumberOfUsers() > 1) options.add("Make External Transaction");
+                    if (bankDatabase.getNumberOfUsers() > 1) {
+                        options.add("Make External Transaction");
+                        options.add("Set Up Standing Order");
+                        options.add("Cancel Standing Order");
+                    }
                 }
                 options.add("Logout");
             }
@@ -67,6 +110,23 @@ public class Main {
             case "View Detailed Banks":
                 bankDatabase.displayBanksInformation();
                 break;
+            case "Verify Balances":
+                bankDatabase.verifyBalances();
+                break;
+            case "Run Transfer Batch":
+                // Saved once by the main loop when the whole file has been applied
+                bankDatabase.runTransferBatch();
+                break;
+            case "Accrue Interest":
+                // Saved once by the main loop, after a crash running it again pays only what is still owed
+                bankDatabase.accrueInterest();
+                break;
+            case "View Metrics":
+                bankDatabase.displayMetrics();
+                break;
+            case "Benchmark Compression":
+                bankDatabase.benchmarkCompression(keys);
+                break;
             case "Remove User":
                 bankDatabase.removeUser();
                 break;
@@ -91,6 +151,12 @@ public class Main {
             case "Make External Transaction":
                 bankDatabase.makeExternalTransaction();
                 break;
+            case "Set Up Standing Order":
+                bankDatabase.setUpStandingOrder();
+                break;
+            case "Cancel Standing Order":
+                bankDatabase.cancelStandingOrder();
+                break;
             case "Logout":
                 bankDatabase.logout();
                 break;
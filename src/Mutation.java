@@ -0,0 +1,40 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+
+// One change to a BankDatabase as written to the Journal, replaying them in order rebuilds the same state
+// Everything is referred to by id, so a Mutation never holds on to the object graph
+public interface Mutation {
+    record BankAdded(String id, String name, String sortCode, int interestRate, int transactionCharge, long initialBalance) implements Mutation {}
+
+    // Passwords are already hashed, nothing here can recover them
+    record UserAdded(String id, String username, Password password, SecurityQuestion[] securityQuestions, String title, String fullName, LocalDateTime unlockTime) implements Mutation {}
+
+    record UserRemoved(String userId) implements Mutation {}
+
+    record UserLockChanged(String userId, LocalDateTime unlockTime, int numberOfTimesLocked) implements Mutation {}
+
+    // A hash remade with the current algorithm and cost, securityQuestionId is null for the login password
+    record PasswordRehashed(String userId, String securityQuestionId, Password password) implements Mutation {}
+
+    // The first user id is the one that opened the Account
+    record AccountAdded(String id, String sortCode, AccountType type, String number, long initialBalance, String[] userIds, LocalDateTime createdAt) implements Mutation {}
+
+    record AccountStatusChanged(String accountId, Status status) implements Mutation {}
+
+    // A null reference is stored as 'No Reference'
+    record ConnectionAdded(String id, String userId, String toAccountId, String reference) implements Mutation {}
+
+    record TransferPosted(String id, String sortCode, String fromAccountId, String toAccountId, long amount, long charge, LocalDateTime timeStamp, String reference) implements Mutation {}
+
+    // Interest paid by the Bank with this sort code, covering every day up to and including paidTo
+    record InterestPaid(String id, String sortCode, String accountId, long amount, LocalDate paidTo, LocalDateTime timeStamp) implements Mutation {}
+
+    // Kept with the Bank of fromAccount. A null reference uses the Connection's, a null interval pays once
+    record StandingOrderAdded(String id, String sortCode, String userId, String fromAccountId, String connectionId, long amount, String reference, Period interval, LocalDateTime firstDue) implements Mutation {}
+
+    record StandingOrderCancelled(String id, String sortCode) implements Mutation {}
+
+    // One payment of the order made or missed, the payment itself is its own TransferPosted
+    record StandingOrderRan(String id, String sortCode) implements Mutation {}
+}
@@ -1,74 +1,174 @@
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.Arrays;
 
+// Each hash is stored with the algorithm and cost that made it, so the defaults can change without breaking older ones
+// A hash made with anything weaker than the current defaults is remade the next time its password is verified
+public class Password {
+    private static final int SALT_LENGTH = 32; // Bytes
+    private static final int FORMAT_MARKER = 0; // No older record starts with an empty salt
+    private static final int LEGACY_COST = 1000000;
+    private static final int MINIMUM_COST = 100000;
+    private static final int REHASH_MARGIN = 10; // Percent below the calibrated cost, calibration varies run to run by less
 
-public class Password implements Serializable {
-    private final byte[] salt;
-    private final byte[] hashedPassword;
+    private static volatile PasswordAlgorithm currentAlgorithm = PasswordAlgorithm.PBKDF2_HMAC_SHA256;
+    private static volatile int currentCost = 310000; // Until calibrated
+
+    private PasswordAlgorithm algorithm;
+    private int cost;
+    private byte[] salt;
+    private byte[] hashedPassword;
     private int attempts;
     private final int maxAttempts;
+    private boolean rehashed;
 
     public Password(char[] password, int maxAttempts) {
+        this.algorithm = currentAlgorithm;
+        this.cost = currentCost;
         this.salt = generateSalt();
-        this.hashedPassword = hashPassword(password, salt);
+        this.hashedPassword = hashPassword(password, algorithm, salt, cost);
         this.attempts = 0;
         this.maxAttempts = maxAttempts;
 
         Arrays.fill(password, '\0');
     }
 
+    private Password(PasswordAlgorithm algorithm, int cost, byte[] salt, byte[] hashedPassword, int attempts, int maxAttempts) {
+        this.algorithm = algorithm;
+        this.cost = cost;
+        this.salt = salt;
+        this.hashedPassword = hashedPassword;
+        this.attempts = attempts;
+        this.maxAttempts = maxAttempts;
+    }
+
+    // Sets the cost of every hash made from now on to about target on this machine, returns that cost
+    public static int calibrate(Duration target) {
+        currentCost = currentAlgorithm.calibrate(target, MINIMUM_COST);
+        return currentCost;
+    }
+
+    public static PasswordAlgorithm getCurrentAlgorithm() {
+        return currentAlgorithm;
+    }
+
+    public static int getCurrentCost() {
+        return currentCost;
+    }
+
+    // Only the salt and hash are written, never anything that could recover the password
+    // [byte 0][byte algorithm][int cost][byte salt length][salt][byte hash length][hash][int attempts][int max attempts]
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(FORMAT_MARKER);
+        out.writeByte(algorithm.getId());
+        out.writeInt(cost);
+        out.writeByte(salt.length);
+        out.write(salt);
+        out.writeByte(hashedPassword.length);
+        out.write(hashedPassword);
+        out.writeInt(attempts);
+        out.writeInt(maxAttempts);
+    }
+
+    // A hash from a release before the algorithm and cost were kept, rehashed the next time it is verified
+    static Password legacy(byte[] salt, byte[] hashedPassword, int attempts, int maxAttempts) {
+        return new Password(PasswordAlgorithm.SHA256_CHAIN, LEGACY_COST, salt.clone(), hashedPassword.clone(), attempts, maxAttempts);
+    }
+
+    // Records written before the marker start straight at the salt length and were all SHA256_CHAIN
+    public static Password read(DataInput in) throws IOException {
+        PasswordAlgorithm algorithm = PasswordAlgorithm.SHA256_CHAIN;
+        int cost = LEGACY_COST;
+        int saltLength = in.readUnsignedByte();
+        if (saltLength == FORMAT_MARKER) {
+            try {
+                algorithm = PasswordAlgorithm.byId(in.readUnsignedByte());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+            cost = in.readInt();
+            if (cost < 1) throw new IOException("Error: Password cost " + cost + " is not positive");
+            saltLength = in.readUnsignedByte();
+        }
+        byte[] salt = new byte[saltLength];
+        in.readFully(salt);
+        byte[] hashedPassword = new byte[in.readUnsignedByte()];
+        in.readFully(hashedPassword);
+        return new Password(algorithm, cost, salt, hashedPassword, in.readInt(), in.readInt());
+    }
+
     // Generate a random salt
     private byte[] generateSalt() {
-        // in bytes
-        int SALT_LENGTH = 32;
         byte[] salt = new byte[SALT_LENGTH];
         SecureRandom random = new SecureRandom();
         random.nextBytes(salt);
         return salt;
     }
 
-    // Hash a password with salt and key stretching
-    private static byte[] hashPassword(char[] password, byte[] salt) {
+    // Hash a password with salt and key stretching, the caller clears the password
+    private static byte[] hashPassword(char[] password, PasswordAlgorithm algorithm, byte[] salt, int cost) {
         Utility.print("Hashing Password...", false);
-        int iterations = 1000000; // Around 0.3s
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-
-            // Add salt
-            md.update(salt);
-
-            // Add password bytes
-            for (char c : password) md.update((byte) c);
-
-            // Perform key stretching
-            for (int i = 0; i < iterations; i++) md.update(md.digest());
-
-            // Clear sensitive data
-            Arrays.fill(password, '\0');
-
-            Utility.print("[DONE]");
-            return md.digest();
-        } catch (NoSuchAlgorithmException e) {
-            Utility.printError(e.getMessage());
-            return null;
-        }
+        byte[] hash = algorithm.hash(password, salt, cost);
+        Utility.print("[DONE]");
+        return hash;
     }
 
     // Verify a password against its hashed version
     public boolean verifyPassword(char[] password) {
         if (checkAttempts()) {
-            boolean valid = MessageDigest.isEqual(hashPassword(password, salt), hashedPassword);
-            if (valid) attempts = 0;
-            else attempts++;
+            boolean valid = MessageDigest.isEqual(hashPassword(password, algorithm, salt, cost), hashedPassword);
+            if (valid) {
+                attempts = 0;
+                if (isOutdated()) rehash(password);
+            } else attempts++;
             Arrays.fill(password, '\0');
             return valid;
         }
+        Arrays.fill(password, '\0');
         return false;
     }
 
+    private boolean isOutdated() {
+        return algorithm != currentAlgorithm || (long) cost * 100 < (long) currentCost * (100 - REHASH_MARGIN);
+    }
+
+    // Only called with a password that has just been verified
+    private void rehash(char[] password) {
+        byte[] newSalt = generateSalt();
+        hashedPassword = hashPassword(password, currentAlgorithm, newSalt, currentCost);
+        salt = newSalt;
+        algorithm = currentAlgorithm;
+        cost = currentCost;
+        rehashed = true;
+    }
+
+    // Whether the hash has been remade since this was last asked, so the caller can record it
+    boolean takeRehashed() {
+        boolean wasRehashed = rehashed;
+        rehashed = false;
+        return wasRehashed;
+    }
+
+    // Takes on a hash remade elsewhere, as recorded in the Journal
+    void replaceWith(Password password) {
+        algorithm = password.algorithm;
+        cost = password.cost;
+        salt = password.salt;
+        hashedPassword = password.hashedPassword;
+    }
+
+    PasswordAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    int getCost() {
+        return cost;
+    }
+
     public boolean checkAttempts() {
         return attempts < maxAttempts;
     }
@@ -0,0 +1,145 @@
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+
+// How a Password is stretched, stored by id with every hash so older hashes still verify after the default changes
+// The inner loops hash into buffers made once per call, nothing is allocated per iteration
+public enum PasswordAlgorithm {
+    // The original hash, salt then the low byte of each char, chained through SHA-256 cost times
+    SHA256_CHAIN(0, 32) {
+        @Override
+        void hash(char[] password, byte[] salt, int cost, byte[] hash) throws GeneralSecurityException {
+            MessageDigest md = DIGESTS.get();
+            md.reset();
+            md.update(salt);
+            for (char c : password) md.update((byte) c);
+
+            byte[] block = new byte[HASH_LENGTH];
+            for (int i = 0; i < cost; i++) {
+                md.digest(block, 0, HASH_LENGTH);
+                md.update(block);
+            }
+            md.digest(hash, 0, HASH_LENGTH);
+            Arrays.fill(block, (byte) 0);
+        }
+    },
+    // PBKDF2 (RFC 8018) with HMAC-SHA-256 over the UTF-8 password, one block long
+    PBKDF2_HMAC_SHA256(1, 32) {
+        @Override
+        void hash(char[] password, byte[] salt, int cost, byte[] hash) throws GeneralSecurityException {
+            Mac mac = MACS.get();
+            byte[] key = utf8(password);
+            try {
+                // HMAC pads its key with zeros, so an empty password is the same key as a single zero byte
+                mac.init(new SecretKeySpec(key.length == 0 ? new byte[1] : key, "HmacSHA256"));
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+
+            byte[] block = new byte[HASH_LENGTH];
+            mac.update(salt);
+            mac.update(new byte[] {0, 0, 0, 1}); // Block index
+            mac.doFinal(block, 0);
+            System.arraycopy(block, 0, hash, 0, HASH_LENGTH);
+            for (int i = 1; i < cost; i++) {
+                mac.update(block);
+                mac.doFinal(block, 0);
+                for (int j = 0; j < HASH_LENGTH; j++) hash[j] ^= block[j];
+            }
+            Arrays.fill(block, (byte) 0);
+        }
+    };
+
+    private static final int HASH_LENGTH = 32;
+    private static final long PROBE_MILLIS = 20; // Long enough that the timer and warm up are lost in the measurement
+    private static final int COST_STEP = 1000;
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Error: SHA-256 is not available", e);
+        }
+    });
+    private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance("HmacSHA256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Error: HmacSHA256 is not available", e);
+        }
+    });
+
+    private final int id;
+    private final int hashLength;
+
+    PasswordAlgorithm(int id, int hashLength) {
+        this.id = id;
+        this.hashLength = hashLength;
+    }
+
+    // Writes hashLength bytes into hash, the password is left for the caller to clear
+    abstract void hash(char[] password, byte[] salt, int cost, byte[] hash) throws GeneralSecurityException;
+
+    public byte[] hash(char[] password, byte[] salt, int cost) {
+        byte[] hash = new byte[hashLength];
+        try {
+            hash(password, salt, cost, hash);
+        } catch (InvalidKeyException e) {
+            throw new IllegalArgumentException("Error: Password can not be used as a " + this + " key", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error: " + this + " failed: " + e.getMessage(), e);
+        }
+        return hash;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public static PasswordAlgorithm byId(int id) {
+        for (PasswordAlgorithm algorithm : values()) {
+            if (algorithm.id == id) return algorithm;
+        }
+        throw new IllegalArgumentException("Error: Unknown PasswordAlgorithm " + id);
+    }
+
+    // The cost that takes about target on this machine, never less than minimumCost
+    // Doubles a probe until it is long enough to time, then scales it linearly
+    public int calibrate(Duration target, int minimumCost) {
+        char[] password = "Calibration".toCharArray();
+        byte[] salt = new byte[HASH_LENGTH];
+        hash(password, salt, COST_STEP); // Warm up
+
+        int cost = COST_STEP;
+        long elapsed;
+        while (true) {
+            long start = System.nanoTime();
+            hash(password, salt, cost);
+            elapsed = System.nanoTime() - start;
+            if (elapsed >= PROBE_MILLIS * 1_000_000 || cost > Integer.MAX_VALUE / 2) break;
+            cost *= 2;
+        }
+        Arrays.fill(password, '\0');
+
+        double scaled = (double) cost * target.toNanos() / Math.max(1, elapsed);
+        long rounded = (long) (scaled / COST_STEP) * COST_STEP;
+        return (int) Math.max(minimumCost, Math.min(Integer.MAX_VALUE, rounded));
+    }
+
+    // Encoded without going through a String, so the only copy is the one the caller clears
+    private static byte[] utf8(char[] password) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] key = new byte[encoded.remaining()];
+        encoded.get(key);
+        if (encoded.hasArray()) Arrays.fill(encoded.array(), (byte) 0);
+        return key;
+    }
+}
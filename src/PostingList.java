@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+// Offsets into the Ledger of the transactions that touch one Account or Bank, oldest first
+// After a snapshot load the older offsets stay in the HistoryStore, only those added since are held here
+// The newest few are also kept in a RecentPostings ring, filled from the tail the first time they are asked for
+public class PostingList {
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final int RECENT_CAPACITY = 16;
+    private HistoryStore history;
+    private long historyPosition;
+    private int historySize;
+    private int[] offsets;
+    private int size;
+    private RecentPostings recent;
+
+    public PostingList() {
+        this.history = null;
+        this.historyPosition = 0;
+        this.historySize = 0;
+        this.offsets = new int[DEFAULT_CAPACITY];
+        this.size = 0;
+    }
+
+    // Backed by historySize fixed width offsets at historyPosition
+    public static PostingList lazy(HistoryStore history, long historyPosition, int historySize) {
+        PostingList postings = new PostingList();
+        postings.history = history;
+        postings.historyPosition = historyPosition;
+        postings.historySize = historySize;
+        return postings;
+    }
+
+    // Kept in offset order, as a Bank's transfers post to it alongside each other and can arrive a little out of it
+    // Anything in the HistoryStore is older than every transfer still being made
+    public void add(int offset) {
+        if (size == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        int index = size;
+        while (index > 0 && offsets[index - 1] > offset) {
+            offsets[index] = offsets[index - 1];
+            index--;
+        }
+        offsets[index] = offset;
+        size++;
+        if (recent != null) {
+            if (index == size - 1) recent.add(offset);
+            else recent = null;
+        }
+    }
+
+    public int removeLast() {
+        if (size == 0) {
+            if (historySize == 0) throw new IndexOutOfBoundsException("Error: Nothing to remove from empty PostingList");
+            materialize();
+        }
+        int offset = offsets[--size];
+        if (recent != null) {
+            recent.removeLast();
+            if (recent.size() < Math.min(recent.capacity(), size())) recent = null;
+        }
+        return offset;
+    }
+
+    // Holds at least the newest limit offsets (or all of them if there are fewer)
+    public RecentPostings latest(int limit) {
+        if (recent == null || recent.capacity() < limit) {
+            RecentPostings filled = new RecentPostings(Math.max(limit, RECENT_CAPACITY));
+            for (int i = Math.max(0, size() - filled.capacity()); i < size(); i++) filled.add(get(i));
+            recent = filled;
+        }
+        return recent;
+    }
+
+    // Pulls every offset out of the HistoryStore
+    private void materialize() {
+        int[] all = new int[Math.max(DEFAULT_CAPACITY, historySize + size)];
+        for (int i = 0; i < historySize; i++) all[i] = history.readInt(historyPosition + 4L * i);
+        System.arraycopy(offsets, 0, all, historySize, size);
+        offsets = all;
+        size += historySize;
+        history = null;
+        historySize = 0;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Error: Index out of bounds for PostingList while trying to get index " + index + " for length " + size());
+        }
+        if (index < historySize) return history.readInt(historyPosition + 4L * index);
+        return offsets[index - historySize];
+    }
+
+    // Fixed width, so any one offset can be read straight from the mapped snapshot
+    public void write(BinaryWriter out) throws IOException {
+        for (int i = 0; i < size(); i++) out.writeInt(get(i));
+    }
+
+    public int size() {
+        return historySize + size;
+    }
+
+    public Boolean isEmpty() {
+        return size() == 0;
+    }
+}
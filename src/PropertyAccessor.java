@@ -0,0 +1,121 @@
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+public class PropertyAccessor {
+    // One compiled getter per class and property, shared by every DynamicList
+    private static final ClassValue<Map<String, PropertyAccessor>> ACCESSORS = new ClassValue<>() {
+        @Override
+        protected Map<String, PropertyAccessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private final String propertyName;
+    private final Class<?> type;
+    private final Function<Object, Object> getter;
+    private final ToIntFunction<Object> intGetter;
+
+    private PropertyAccessor(String propertyName, Class<?> type, Function<Object, Object> getter, ToIntFunction<Object> intGetter) {
+        this.propertyName = propertyName;
+        this.type = type;
+        this.getter = getter;
+        this.intGetter = intGetter;
+    }
+
+    public static PropertyAccessor of(Class<?> type, String propertyName) {
+        return ACCESSORS.get(type).computeIfAbsent(propertyName, name -> compile(type, name));
+    }
+
+    public Object get(Object element) {
+        return getter.apply(element);
+    }
+
+    public int getInt(Object element) {
+        if (intGetter == null) {
+            throw new IllegalArgumentException("Error: Property '" + propertyName + "' of '" + type.getSimpleName() + "' is not an int");
+        }
+        return intGetter.applyAsInt(element);
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    private static PropertyAccessor compile(Class<?> type, String propertyName) {
+        Method method;
+        try {
+            method = type.getMethod("get" + propertyName.substring(0, 1).toUpperCase() + propertyName.substring(1));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Error: No property '" + propertyName + "' found on '" + type.getSimpleName() + "'", e);
+        }
+
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Error: Property '" + propertyName + "' of '" + type.getSimpleName() + "' is not accessible", e);
+        }
+
+        Function<Object, Object> getter = compileGetter(handle);
+        Class<?> returnType = method.getReturnType();
+        ToIntFunction<Object> intGetter = null;
+        if (returnType == int.class || returnType == short.class || returnType == byte.class || returnType == char.class) {
+            intGetter = compileIntGetter(handle);
+        } else if (returnType == Integer.class) {
+            intGetter = element -> (Integer) getter.apply(element);
+        }
+        return new PropertyAccessor(propertyName, type, getter, intGetter);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> compileGetter(MethodHandle handle) {
+        try {
+            // Spin a real Function class so the getter inlines like a direct call
+            CallSite site = LambdaMetafactory.metafactory(MethodHandles.lookup(), "apply",
+                    MethodType.methodType(Function.class), MethodType.methodType(Object.class, Object.class),
+                    handle, handle.type().wrap());
+            return (Function<Object, Object>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            // Classes the lambda can not be linked against still go through the handle
+            MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class));
+            return element -> {
+                try {
+                    return generic.invokeExact(element);
+                } catch (RuntimeException | Error rethrown) {
+                    throw rethrown;
+                } catch (Throwable thrown) {
+                    throw new IllegalStateException(thrown);
+                }
+            };
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ToIntFunction<Object> compileIntGetter(MethodHandle handle) {
+        try {
+            CallSite site = LambdaMetafactory.metafactory(MethodHandles.lookup(), "applyAsInt",
+                    MethodType.methodType(ToIntFunction.class), MethodType.methodType(int.class, Object.class),
+                    handle, handle.type().changeReturnType(int.class));
+            return (ToIntFunction<Object>) site.getTarget().invoke();
+        } catch (Throwable e) {
+            MethodHandle generic = handle.asType(MethodType.methodType(int.class, Object.class));
+            return element -> {
+                try {
+                    return (int) generic.invokeExact(element);
+                } catch (RuntimeException | Error rethrown) {
+                    throw rethrown;
+                } catch (Throwable thrown) {
+                    throw new IllegalStateException(thrown);
+                }
+            };
+        }
+    }
+}
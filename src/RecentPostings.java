@@ -0,0 +1,43 @@
+// The newest Ledger offsets of a PostingList in a fixed size ring, so showing the latest transactions never reads the history
+public class RecentPostings {
+    private final int[] offsets;
+    private int head; // Where the next offset goes
+    private int size;
+
+    public RecentPostings(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Error: RecentPostings capacity " + capacity + " must be positive");
+        this.offsets = new int[capacity];
+        this.head = 0;
+        this.size = 0;
+    }
+
+    public void add(int offset) {
+        offsets[head] = offset;
+        head = (head + 1) % offsets.length;
+        if (size < offsets.length) size++;
+    }
+
+    // The one before it is gone from the ring for good, so callers refill once they drop below capacity
+    public int removeLast() {
+        if (size == 0) throw new IndexOutOfBoundsException("Error: Nothing to remove from empty RecentPostings");
+        head = (head - 1 + offsets.length) % offsets.length;
+        size--;
+        return offsets[head];
+    }
+
+    // 0 is the newest
+    public int get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Error: Index out of bounds for RecentPostings while trying to get index " + index + " for length " + size);
+        }
+        return offsets[(head - 1 - index + 2 * offsets.length) % offsets.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return offsets.length;
+    }
+}
@@ -0,0 +1,30 @@
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.util.Map;
+
+// Typed inputs for the non-interactive BankDatabase operations
+public final class Request {
+    private Request() {}
+
+    public record NewBank(String name, int interestRate, int transactionCharge, long initialBalance) {}
+
+    // securityAnswers maps each chosen question (as written in SecurityQuestionsOptions.txt) to its answer
+    // All passwords and answers are cleared once the request has been handled
+    public record NewUser(String username, char[] password, Map<String, char[]> securityAnswers, String title, String fullName) {}
+
+    // The first user is the one opening the Account
+    public record NewAccount(DynamicList<User> users, AccountType type, Bank bank, long initialBalance) {}
+
+    // An empty reference is stored as 'No Reference'
+    public record NewConnection(User user, String payeeName, String number, String sortCode, String reference) {}
+
+    // External transfers pay the Bank's transaction charge
+    public record Transfer(Account fromAccount, Account toAccount, long amount, String reference, Boolean external) {}
+
+    // Pays connection once on firstDue, or every interval from it. An empty reference uses the Connection's
+    public record NewStandingOrder(User user, Account fromAccount, Connection connection, long amount, String reference, LocalDateTime firstDue, Period interval) {}
+
+    // Transactions from (inclusive) to (exclusive) moving between minAmount and maxAmount pence (charge not included)
+    // with counterparty on the other side. Any of them left null is not checked
+    public record History(LocalDateTime from, LocalDateTime to, Long minAmount, Long maxAmount, Account counterparty) {}
+}
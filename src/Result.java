@@ -0,0 +1,49 @@
+// Outcome of a BankDatabase operation, either a value or a BankError
+public class Result<DataType> {
+    private final DataType value;
+    private final BankError error;
+    private final String detail;
+
+    private Result(DataType value, BankError error, String detail) {
+        this.value = value;
+        this.error = error;
+        this.detail = detail;
+    }
+
+    public static <DataType> Result<DataType> success(DataType value) {
+        return new Result<>(value, null, null);
+    }
+
+    public static <DataType> Result<DataType> failure(BankError error) {
+        return new Result<>(null, error, null);
+    }
+
+    public static <DataType> Result<DataType> failure(BankError error, String detail) {
+        return new Result<>(null, error, detail);
+    }
+
+    public Boolean isSuccess() {
+        return error == null;
+    }
+
+    public DataType getValue() {
+        if (error != null) throw new IllegalStateException("Error: No value in failed Result (" + getMessage() + ")");
+        return value;
+    }
+
+    public BankError getError() {
+        return error;
+    }
+
+    public String getMessage() {
+        if (error == null) return "Success";
+        if (detail == null) return error.toString();
+        return error + ": " + detail;
+    }
+
+    @Override
+    public String toString() {
+        if (error == null) return String.valueOf(value);
+        return getMessage();
+    }
+}
@@ -1,7 +1,9 @@
-import java.io.Serializable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 
-public class SecurityQuestion implements Serializable {
+public class SecurityQuestion {
     private final String id;
     private final String output;
     private final String regex;
@@ -15,10 +17,33 @@ public class SecurityQuestion implements Serializable {
         this.answer = answer;
     }
 
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(id);
+        out.writeUTF(output);
+        out.writeUTF(regex);
+        answer.write(out);
+    }
+
+    public static SecurityQuestion read(DataInput in) throws IOException {
+        return new SecurityQuestion(in.readUTF(), in.readUTF(), in.readUTF(), Password.read(in));
+    }
+
     public String getId() {
         return id;
     }
 
+    String getOutput() {
+        return output;
+    }
+
+    String getRegex() {
+        return regex;
+    }
+
+    Password getAnswer() {
+        return answer;
+    }
+
     @Override
     public String toString() {
         return output;
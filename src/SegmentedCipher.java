@@ -0,0 +1,368 @@
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// The stream is cut into fixed size segments, each sealed on its own with AES-GCM
+// so every core can encrypt or decrypt a segment at once and a damaged segment is caught on its own
+// Header: [int magic][byte version][int segment size][8 byte nonce prefix]
+// Segment: [int length][byte flags][ciphertext + tag], nonce = prefix + segment index
+// The index and flags are authenticated too, so segments can not be reordered, dropped or cut short
+// A segment is deflated before it is sealed when that makes it smaller, so segments vary in length
+public class SegmentedCipher {
+    public static final int MAGIC = 0x42445332; // "BDS2"
+    public static final byte VERSION = 1;
+    public static final int HEADER_LENGTH = 17;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int SEGMENT_SIZE = 1 << 20;
+    private static final int TAG_LENGTH = 128; // Bits
+    private static final int PREFIX_LENGTH = 8;
+    private static final int IN_FLIGHT = Runtime.getRuntime().availableProcessors() * 2;
+    private static final int FRAME_HEADER_LENGTH = 5;
+    private static final int CACHED_SEGMENTS = 16;
+    // Segment flags
+    private static final byte LAST = 1;
+    private static final byte DEFLATED = 2;
+
+    // Each pool thread keeps its own, as their native state is costly to set up
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+    private SegmentedCipher() {}
+
+    public static boolean isSegmented(byte[] header) {
+        return header.length >= 4 && ByteBuffer.wrap(header).getInt(0) == MAGIC;
+    }
+
+    private static byte[] nonce(byte[] prefix, int index) {
+        return ByteBuffer.allocate(PREFIX_LENGTH + 4).put(prefix).putInt(index).array();
+    }
+
+    private static boolean isLast(byte flags) {
+        return (flags & LAST) != 0;
+    }
+
+    private static boolean isValid(byte flags) {
+        return (flags & ~(LAST | DEFLATED)) == 0;
+    }
+
+    private static byte[] associatedData(int index, byte flags) {
+        return ByteBuffer.allocate(5).putInt(index).put(flags).array();
+    }
+
+    private record Frame(byte flags, byte[] sealed) {}
+
+    // Level is a Deflater level, NO_COMPRESSION seals the segment as it is
+    private static Frame seal(KeyManager keys, byte[] prefix, int index, boolean last, byte[] plain, int length, int level) {
+        byte flags = last ? LAST : 0;
+        byte[] deflated = level == Deflater.NO_COMPRESSION ? null : deflate(plain, length, level);
+        if (deflated != null) {
+            flags |= DEFLATED;
+            plain = deflated;
+            length = deflated.length;
+        }
+
+        try {
+            Cipher cipher = keys.getCipher(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, keys.getKey(), new GCMParameterSpec(TAG_LENGTH, nonce(prefix, index)));
+            cipher.updateAAD(associatedData(index, flags));
+            return new Frame(flags, cipher.doFinal(plain, 0, length));
+        } catch (GeneralSecurityException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // null when deflating would not make it any smaller
+    private static byte[] deflate(byte[] plain, int length, int level) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(plain, 0, length);
+        deflater.finish();
+
+        byte[] deflated = new byte[length];
+        int deflatedLength = 0;
+        while (!deflater.finished() && deflatedLength < deflated.length) {
+            deflatedLength += deflater.deflate(deflated, deflatedLength, deflated.length - deflatedLength);
+        }
+        if (!deflater.finished()) return null;
+        return Arrays.copyOf(deflated, deflatedLength);
+    }
+
+    private static byte[] open(KeyManager keys, byte[] prefix, int index, byte flags, byte[] sealed, int segmentSize) {
+        byte[] plain;
+        try {
+            Cipher cipher = keys.getCipher(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, keys.getKey(), new GCMParameterSpec(TAG_LENGTH, nonce(prefix, index)));
+            cipher.updateAAD(associatedData(index, flags));
+            plain = cipher.doFinal(sealed);
+        } catch (AEADBadTagException e) {
+            throw new CompletionException(new IOException("Error: Snapshot segment " + index + " failed authentication", e));
+        } catch (GeneralSecurityException e) {
+            throw new CompletionException(e);
+        }
+        if ((flags & DEFLATED) == 0) return plain;
+
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(plain);
+        byte[] inflated = new byte[segmentSize];
+        int inflatedLength = 0;
+        try {
+            while (!inflater.finished() && inflatedLength < inflated.length) {
+                int read = inflater.inflate(inflated, inflatedLength, inflated.length - inflatedLength);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                inflatedLength += read;
+            }
+        } catch (DataFormatException e) {
+            throw new CompletionException(new IOException("Error: Snapshot segment " + index + " could not be inflated", e));
+        }
+        if (!inflater.finished()) throw new CompletionException(new IOException("Error: Snapshot segment " + index + " inflates past the segment size"));
+        return inflatedLength == inflated.length ? inflated : Arrays.copyOf(inflated, inflatedLength);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) throw cause;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // Closing it seals the final segment and flushes, but leaves the underlying stream open
+    // Level is the Deflater level each segment is compressed at, NO_COMPRESSION to only encrypt
+    public static class Output extends OutputStream {
+        private final DataOutputStream out;
+        private final KeyManager keys;
+        private final int level;
+        private final byte[] prefix;
+        private final Deque<CompletableFuture<Frame>> inFlight;
+        private byte[] buffer;
+        private int count;
+        private int index;
+        private long plainLength;
+        private boolean closed;
+
+        public Output(OutputStream out, KeyManager keys, int level) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.keys = keys;
+            this.level = level;
+            this.prefix = new byte[PREFIX_LENGTH];
+            new SecureRandom().nextBytes(prefix);
+            this.inFlight = new ArrayDeque<>();
+            this.buffer = new byte[SEGMENT_SIZE];
+            this.count = 0;
+            this.index = 0;
+            this.plainLength = 0;
+            this.closed = false;
+
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeInt(SEGMENT_SIZE);
+            this.out.write(prefix);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) submit(false);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (count == buffer.length) submit(false);
+                int copied = Math.min(length, buffer.length - count);
+                System.arraycopy(bytes, offset, buffer, count, copied);
+                count += copied;
+                offset += copied;
+                length -= copied;
+            }
+        }
+
+        private void submit(boolean last) throws IOException {
+            byte[] plain = buffer;
+            int length = count;
+            int segment = index++;
+            plainLength += length;
+            inFlight.add(CompletableFuture.supplyAsync(() -> seal(keys, prefix, segment, last, plain, length, level)));
+
+            // The segment being sealed keeps its buffer, the next one fills a fresh one
+            buffer = new byte[SEGMENT_SIZE];
+            count = 0;
+            while (inFlight.size() >= IN_FLIGHT) writeNext();
+        }
+
+        // Segments are written in order however they finish
+        private void writeNext() throws IOException {
+            Frame frame = join(inFlight.poll());
+            out.writeInt(frame.sealed().length);
+            out.writeByte(frame.flags());
+            out.write(frame.sealed());
+        }
+
+        // Bytes written in, and bytes written out including every header
+        public long getPlainLength() {
+            return plainLength;
+        }
+
+        public long getSealedLength() {
+            return out.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            // Always ends with a last segment, even an empty one, so a cut short file is caught
+            submit(true);
+            while (!inFlight.isEmpty()) writeNext();
+            out.flush();
+        }
+    }
+
+    // Random access to a segmented file: it is memory mapped and only the segments that are read get decrypted
+    // Every segment but the last holds exactly the segment size once opened, so the segment for any position is
+    // found directly, and where each segment sits in the file is found once by walking their headers
+    public static class Mapped {
+        private final Path path;
+        private final FileChannel channel;
+        private final KeyManager keys;
+        private final byte[] prefix;
+        private final int segmentSize;
+        private final int segmentCount;
+        private final long[] framePositions;
+        private final int[] sealedLengths;
+        private final byte[] frameFlags;
+        private final long length;
+        private final Map<Integer, byte[]> cache;
+
+        public Mapped(Path path, KeyManager keys) throws IOException {
+            this.path = path;
+            // Kept open for as long as anything may read from it, even once a newer snapshot has replaced the file
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.keys = keys;
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH);
+            if (header.getInt() != MAGIC) throw new IOException("Error: '" + path + "' is not a segmented snapshot");
+            byte version = header.get();
+            if (version != VERSION) throw new IOException("Error: Unknown snapshot version " + version);
+            this.segmentSize = header.getInt();
+            this.prefix = new byte[PREFIX_LENGTH];
+            header.get(prefix);
+
+            long size = channel.size();
+            long[] positions = new long[16];
+            int[] lengths = new int[16];
+            byte[] flags = new byte[16];
+            int count = 0;
+            long position = HEADER_LENGTH;
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_LENGTH);
+            while (count == 0 || !isLast(flags[count - 1])) {
+                frame.clear();
+                if (position + FRAME_HEADER_LENGTH > size || channel.read(frame, position) != FRAME_HEADER_LENGTH) {
+                    throw new IOException("Error: Snapshot ends before its last segment");
+                }
+                frame.flip();
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                    flags = Arrays.copyOf(flags, count * 2);
+                }
+                positions[count] = position;
+                lengths[count] = frame.getInt();
+                flags[count] = frame.get();
+                if (lengths[count] < TAG_LENGTH / 8 || lengths[count] > segmentSize + TAG_LENGTH / 8 || !isValid(flags[count])) {
+                    throw new IOException("Error: Snapshot segment " + count + " of '" + path + "' has a bad header");
+                }
+                position += FRAME_HEADER_LENGTH + lengths[count];
+                count++;
+            }
+            if (position != size) throw new IOException("Error: Snapshot has data after its last segment");
+            this.segmentCount = count;
+            this.framePositions = positions;
+            this.sealedLengths = lengths;
+            this.frameFlags = flags;
+
+            this.cache = new LinkedHashMap<>(CACHED_SEGMENTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                    return size() > CACHED_SEGMENTS;
+                }
+            };
+
+            // A deflated last segment has to be opened to know how much it holds
+            int last = count - 1;
+            long lastLength = (frameFlags[last] & DEFLATED) == 0 ? sealedLengths[last] - TAG_LENGTH / 8 : segment(last).length;
+            this.length = (long) last * segmentSize + lastLength;
+        }
+
+        // Plain text bytes held
+        public long length() {
+            return length;
+        }
+
+        public synchronized void close() throws IOException {
+            cache.clear();
+            channel.close();
+        }
+
+        private synchronized byte[] segment(int index) throws IOException {
+            byte[] plain = cache.get(index);
+            if (plain != null) return plain;
+
+            byte[] sealed = new byte[sealedLengths[index]];
+            channel.map(FileChannel.MapMode.READ_ONLY, framePositions[index] + FRAME_HEADER_LENGTH, sealed.length).get(sealed);
+
+            try {
+                plain = open(keys, prefix, index, frameFlags[index], sealed, segmentSize);
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException cause) throw cause;
+                throw new IOException(e.getCause());
+            }
+            if (index < segmentCount - 1 && plain.length != segmentSize) {
+                throw new IOException("Error: Snapshot segment " + index + " of '" + path + "' holds " + plain.length + " bytes");
+            }
+            cache.put(index, plain);
+            return plain;
+        }
+
+        public void read(long position, byte[] bytes, int offset, int count) throws IOException {
+            if (position < 0 || position + count > length) {
+                throw new IOException("Error: Read of " + count + " bytes at " + position + " is outside '" + path + "' (" + length + " bytes)");
+            }
+            while (count > 0) {
+                byte[] plain = segment((int) (position / segmentSize));
+                int start = (int) (position % segmentSize);
+                int copied = Math.min(count, plain.length - start);
+                System.arraycopy(plain, start, bytes, offset, copied);
+                position += copied;
+                offset += copied;
+                count -= copied;
+            }
+        }
+
+        public ByteBuffer read(long position, int count) throws IOException {
+            byte[] bytes = new byte[count];
+            read(position, bytes, 0, count);
+            return ByteBuffer.wrap(bytes);
+        }
+    }
+}
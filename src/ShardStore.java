@@ -0,0 +1,412 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+// Persists a BankDatabase as shards, so a save only rewrites what has changed since the last one
+// Shards: a directory of every user, one per Bank holding its Accounts and their postings, and the Ledger rows in
+// chunks of CHUNK_ROWS (only the last, growing chunk changes once the rest are full)
+// "bankDatabase.ser" is the manifest naming the current file of every shard. Shard files are named by the save that
+// wrote them, so a file the manifest names is never overwritten, and the manifest is replaced in one rename once the
+// new shards are on disk: a crash leaves the old or the new set, never a mix
+// Each file: [int magic][byte version][byte kind][int length][entities][history], the entities are read on load
+// and the history is left in the mapped file until it is asked for
+public class ShardStore {
+    public static final int CHUNK_ROWS = 1 << 16;
+    private static final int HEADER_LENGTH = 10;
+    private static final String PREFIX = "bankDatabase.";
+
+    private final Path folder;
+    private long generation;
+    private String directoryFile; // null until first written
+    private final Map<String, String> bankFiles; // Sort code -> file
+    private final List<String> chunkFiles;
+    private int persistedRows;
+    private User persistedLoggedInUser;
+
+    private volatile boolean directoryDirty;
+    private final Set<String> dirtyBanks;
+
+    private int lastWritten;
+    private int lastTotal;
+    private long lastBytes;
+    private long lastPlainBytes;
+    private long lastMillis;
+
+    // Nothing written yet, so the first save writes every shard
+    public ShardStore() {
+        this(0, null, new HashMap<>(), new ArrayList<>(), 0);
+    }
+
+    private ShardStore(long generation, String directoryFile, Map<String, String> bankFiles, List<String> chunkFiles, int persistedRows) {
+        this.folder = Paths.get(Utility.ENCRYPTED_FILE_NAME).toAbsolutePath().getParent();
+        this.generation = generation;
+        this.directoryFile = directoryFile;
+        this.bankFiles = bankFiles;
+        this.chunkFiles = chunkFiles;
+        this.persistedRows = persistedRows;
+        this.persistedLoggedInUser = null;
+        this.directoryDirty = false;
+        this.dirtyBanks = ConcurrentHashMap.newKeySet();
+    }
+
+    // Users, their locks, Accounts and connections
+    public void markDirectory() {
+        directoryDirty = true;
+    }
+
+    public void markBank(String sortCode) {
+        dirtyBanks.add(sortCode);
+    }
+
+    public String getMetrics() {
+        if (lastTotal == 0) return "No Shards Saved Yet";
+        return "Last Save Wrote " + lastWritten + " of " + lastTotal + " " + Utility.formatPlural("Shard", lastTotal)
+                + " (" + (lastBytes / 1024) + " KB from " + (lastPlainBytes / 1024) + " KB) taking " + lastMillis + " ms";
+    }
+
+    // SAVE
+
+    private interface Encoder {
+        void write(BinaryWriter out) throws IOException;
+    }
+
+    // Returns whether it was written, on failure everything is left as it was and the same shards are tried next time
+    public Boolean save(BankDatabase database, KeyManager keys) {
+        long start = System.nanoTime();
+        long next = generation + 1;
+        List<Path> written = new ArrayList<>();
+        long plainBytes = 0;
+        List<String> writtenBanks = new ArrayList<>();
+        boolean writeDirectory = directoryDirty || directoryFile == null || database.getLoggedInUser() != persistedLoggedInUser;
+        directoryDirty = false;
+
+        try {
+            String newDirectoryFile = directoryFile;
+            if (writeDirectory) {
+                newDirectoryFile = PREFIX + next + ".directory.ser";
+                Path path = folder.resolve(newDirectoryFile);
+                written.add(path);
+                plainBytes += writeShard(path, DatabaseCodec.DIRECTORY, out -> DatabaseCodec.writeDirectory(database, out), null, keys);
+            }
+
+            Map<String, String> newBankFiles = new HashMap<>(bankFiles);
+            for (Bank bank : database.getBanks()) {
+                String sortCode = bank.getSortCode();
+                // Removed before it is written, so a change made while writing marks it again
+                if (!dirtyBanks.remove(sortCode) && bankFiles.containsKey(sortCode)) continue;
+                writtenBanks.add(sortCode);
+                String file = PREFIX + next + ".bank." + sortCode + ".ser";
+                Path path = folder.resolve(file);
+                written.add(path);
+                plainBytes += writeShard(path, DatabaseCodec.BANK, out -> DatabaseCodec.writeBank(bank, out), out -> DatabaseCodec.writeBankHistory(bank, out), keys);
+                newBankFiles.put(sortCode, file);
+            }
+
+            // Full chunks already written never change, only those holding rows posted since are rewritten
+            Ledger ledger = database.getLedger();
+            int size = ledger.size();
+            int keptChunks = size == persistedRows ? chunkFiles.size() : Math.min(chunkFiles.size(), persistedRows / CHUNK_ROWS);
+            List<String> newChunkFiles = new ArrayList<>(chunkFiles.subList(0, keptChunks));
+            for (int chunk = keptChunks; (long) chunk * CHUNK_ROWS < size; chunk++) {
+                String file = PREFIX + next + ".ledger." + chunk + ".ser";
+                Path path = folder.resolve(file);
+                written.add(path);
+                plainBytes += writeShard(path, DatabaseCodec.LEDGER, chunkEntities(chunk, size), chunkHistory(ledger, chunk, size), keys);
+                newChunkFiles.add(file);
+            }
+
+            int numberOfShards = 1 + newBankFiles.size() + newChunkFiles.size();
+            String directoryName = newDirectoryFile;
+            Path manifest = folder.resolve(Utility.ENCRYPTED_FILE_NAME + ".tmp");
+            written.add(manifest);
+            plainBytes += writeShard(manifest, DatabaseCodec.MANIFEST, out -> writeManifest(database, next, directoryName, newBankFiles, newChunkFiles, size, out), null, keys);
+            long bytes = 0;
+            for (Path path : written) bytes += Files.size(path);
+
+            // Nothing after the rename can fail, as the files just written are then the live ones
+            Files.move(manifest, folder.resolve(Utility.ENCRYPTED_FILE_NAME), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Utility.forceDirectory(folder);
+
+            // Loaded shards stay mapped, so on POSIX the old files live on unlinked for as long as they are read
+            List<String> replaced = new ArrayList<>();
+            if (writeDirectory && directoryFile != null) replaced.add(directoryFile);
+            for (String sortCode : writtenBanks) {
+                if (bankFiles.containsKey(sortCode)) replaced.add(bankFiles.get(sortCode));
+            }
+            for (int chunk = keptChunks; chunk < chunkFiles.size(); chunk++) replaced.add(chunkFiles.get(chunk));
+            for (String file : replaced) delete(folder.resolve(file));
+
+            generation = next;
+            directoryFile = newDirectoryFile;
+            bankFiles.clear();
+            bankFiles.putAll(newBankFiles);
+            chunkFiles.clear();
+            chunkFiles.addAll(newChunkFiles);
+            persistedRows = size;
+            persistedLoggedInUser = database.getLoggedInUser();
+
+            lastWritten = written.size() - 1;
+            lastBytes = bytes;
+            lastPlainBytes = plainBytes;
+            lastTotal = numberOfShards;
+            lastMillis = (System.nanoTime() - start) / 1_000_000;
+            return true;
+        } catch (Exception e) {
+            Utility.printError(e.getMessage());
+            if (writeDirectory) directoryDirty = true;
+            dirtyBanks.addAll(writtenBanks);
+            for (Path path : written) delete(path);
+        }
+        return false;
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Windows will not delete a file that is still mapped, it is left behind
+        }
+    }
+
+    private static Encoder chunkEntities(int chunk, int size) {
+        return out -> {
+            out.writeVarInt(chunk);
+            out.writeVarInt(Math.min(CHUNK_ROWS, size - chunk * CHUNK_ROWS));
+        };
+    }
+
+    private static Encoder chunkHistory(Ledger ledger, int chunk, int size) {
+        return out -> ledger.write(out, chunk * CHUNK_ROWS, Math.min(size, (chunk + 1) * CHUNK_ROWS));
+    }
+
+    // Returns the bytes encoded, before compression and encryption
+    private static long writeShard(Path path, byte kind, Encoder entities, Encoder history, KeyManager keys) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SegmentedCipher.Output sealed = encode(Channels.newOutputStream(channel), kind, entities, history, keys, Main.COMPRESSION_LEVEL);
+            channel.force(true);
+            return sealed.getPlainLength();
+        }
+    }
+
+    // The entities are encoded first so their length can lead the file, the history streams straight through
+    // Closing seals the last segment but leaves the stream open
+    private static SegmentedCipher.Output encode(OutputStream stream, byte kind, Encoder entities, Encoder history, KeyManager keys, int level) throws IOException {
+        ByteArrayOutputStream entityBytes = new ByteArrayOutputStream();
+        BinaryWriter entityOut = new BinaryWriter(entityBytes);
+        entities.write(entityOut);
+        entityOut.flush();
+
+        SegmentedCipher.Output sealed = new SegmentedCipher.Output(stream, keys, level);
+        BinaryWriter out = new BinaryWriter(new BufferedOutputStream(sealed, Utility.STREAM_BUFFER_SIZE));
+        out.writeInt(DatabaseCodec.MAGIC);
+        out.writeByte(DatabaseCodec.VERSION);
+        out.writeByte(kind);
+        out.writeInt(entityBytes.size());
+        entityBytes.writeTo(out);
+        if (history != null) history.write(out);
+        out.close();
+        return sealed;
+    }
+
+    // Encodes every shard at each Deflater level without writing anything, to weigh the bytes saved against the time
+    public static String benchmark(BankDatabase database, KeyManager keys) throws IOException {
+        StringBuilder output = new StringBuilder();
+        Ledger ledger = database.getLedger();
+        int size = ledger.size();
+        // The first level timed would otherwise pay for warming up the encoders
+        encode(OutputStream.nullOutputStream(), DatabaseCodec.DIRECTORY, out -> DatabaseCodec.writeDirectory(database, out), null, keys, Deflater.NO_COMPRESSION);
+        for (int level : new int[] {Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, 6, Deflater.BEST_COMPRESSION}) {
+            long start = System.nanoTime();
+            List<SegmentedCipher.Output> outputs = new ArrayList<>();
+            outputs.add(encode(OutputStream.nullOutputStream(), DatabaseCodec.DIRECTORY, out -> DatabaseCodec.writeDirectory(database, out), null, keys, level));
+            for (Bank bank : database.getBanks()) {
+                outputs.add(encode(OutputStream.nullOutputStream(), DatabaseCodec.BANK, out -> DatabaseCodec.writeBank(bank, out), out -> DatabaseCodec.writeBankHistory(bank, out), keys, level));
+            }
+            for (int chunk = 0; (long) chunk * CHUNK_ROWS < size; chunk++) {
+                outputs.add(encode(OutputStream.nullOutputStream(), DatabaseCodec.LEDGER, chunkEntities(chunk, size), chunkHistory(ledger, chunk, size), keys, level));
+            }
+            long millis = (System.nanoTime() - start) / 1_000_000;
+
+            long plain = 0;
+            long sealed = 0;
+            for (SegmentedCipher.Output out : outputs) {
+                plain += out.getPlainLength();
+                sealed += out.getSealedLength();
+            }
+            output.append("\n > Level ").append(level).append(level == Main.COMPRESSION_LEVEL ? " (Current)" : "").append(": ")
+                    .append(sealed / 1024).append(" KB (").append(plain == 0 ? 100 : sealed * 100 / plain).append("% of ")
+                    .append(plain / 1024).append(" KB) taking ").append(millis).append(" ms");
+        }
+        return output.toString();
+    }
+
+    // Banks in listed order with the Bank index of every Account ordinal, then the Ledger chunks
+    private static void writeManifest(BankDatabase database, long generation, String directoryFile, Map<String, String> bankFiles, List<String> chunkFiles, int ledgerSize, BinaryWriter out) throws IOException {
+        out.writeVarLong(database.getJournalSequence());
+        out.writeVarLong(generation);
+        out.writeString(directoryFile);
+
+        DynamicList<Bank> banks = database.getBanks();
+        Map<String, Integer> bankIndexes = new HashMap<>();
+        out.writeVarInt(banks.size());
+        for (Bank bank : banks) {
+            bankIndexes.put(bank.getSortCode(), bankIndexes.size());
+            out.writeString(bank.getSortCode());
+            out.writeString(bankFiles.get(bank.getSortCode()));
+        }
+
+        Ledger ledger = database.getLedger();
+        out.writeVarInt(ledger.getNumberOfAccounts());
+        for (int ordinal = 0; ordinal < ledger.getNumberOfAccounts(); ordinal++) {
+            out.writeVarInt(bankIndexes.get(ledger.getAccount(ordinal).getSortCode()));
+        }
+
+        out.writeVarInt(ledgerSize);
+        out.writeVarInt(CHUNK_ROWS);
+        out.writeVarInt(chunkFiles.size());
+        for (String file : chunkFiles) out.writeString(file);
+    }
+
+    // LOAD
+
+    // One shard file, mapped and with its entities already read out
+    private record Shard(SegmentedCipher.Mapped source, HistoryStore history, BinaryReader entities) {}
+
+    private static Shard openShard(Path path, byte kind, KeyManager keys) throws IOException {
+        return openShard(new SegmentedCipher.Mapped(path, keys), path, kind);
+    }
+
+    private static Shard openShard(SegmentedCipher.Mapped source, Path path, byte kind) throws IOException {
+        try {
+            if (source.length() < HEADER_LENGTH) throw new IOException("Error: '" + path.getFileName() + "' is too short to be a shard");
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(source.read(0, HEADER_LENGTH).array()));
+            if (header.readInt() != DatabaseCodec.MAGIC) throw new IOException("Error: '" + path.getFileName() + "' is not an encoded shard");
+            int version = header.readByte();
+            if (version != DatabaseCodec.VERSION) throw new IOException("Error: Unknown shard version " + version + " in '" + path.getFileName() + "'");
+            if (header.readByte() != kind) throw new IOException("Error: '" + path.getFileName() + "' is the wrong kind of shard");
+            int length = header.readInt();
+            if (length < 0 || HEADER_LENGTH + (long) length > source.length()) throw new IOException("Error: '" + path.getFileName() + "' ends before its entities");
+
+            HistoryStore history = new HistoryStore(source);
+            history.setBase(HEADER_LENGTH + length);
+            BinaryReader entities = new BinaryReader(new ByteArrayInputStream(source.read(HEADER_LENGTH, length).array()));
+            return new Shard(source, history, entities);
+        } catch (IOException | RuntimeException e) {
+            source.close();
+            throw e;
+        }
+    }
+
+    // From the mapped manifest: every other shard is opened and decrypted at once, then they are put together in order
+    public static BankDatabase load(SegmentedCipher.Mapped manifestSource, KeyManager keys) throws IOException {
+        Path manifestPath = Paths.get(Utility.ENCRYPTED_FILE_NAME);
+        BinaryReader manifest = openShard(manifestSource, manifestPath, DatabaseCodec.MANIFEST).entities();
+        manifestSource.close();
+
+        long journalSequence = manifest.readVarLong();
+        long generation = manifest.readVarLong();
+        String directoryFile = manifest.readString();
+        String[] sortCodes = new String[manifest.readVarInt()];
+        String[] bankFileNames = new String[sortCodes.length];
+        for (int i = 0; i < sortCodes.length; i++) {
+            sortCodes[i] = manifest.readString();
+            bankFileNames[i] = manifest.readString();
+        }
+        int[] accountBanks = new int[manifest.readVarInt()];
+        for (int ordinal = 0; ordinal < accountBanks.length; ordinal++) accountBanks[ordinal] = manifest.readVarInt();
+        int ledgerSize = manifest.readVarInt();
+        int chunkRows = manifest.readVarInt();
+        String[] chunkFileNames = new String[manifest.readVarInt()];
+        for (int i = 0; i < chunkFileNames.length; i++) chunkFileNames[i] = manifest.readString();
+        if (chunkRows != CHUNK_ROWS || (long) chunkFileNames.length * chunkRows < ledgerSize) {
+            throw new IOException("Error: Manifest lists " + chunkFileNames.length + " Ledger chunks of " + chunkRows + " rows for " + ledgerSize + " transactions");
+        }
+
+        Path folder = manifestPath.toAbsolutePath().getParent();
+        List<CompletableFuture<Shard>> opening = new ArrayList<>();
+        opening.add(open(folder.resolve(directoryFile), DatabaseCodec.DIRECTORY, keys));
+        for (String file : bankFileNames) opening.add(open(folder.resolve(file), DatabaseCodec.BANK, keys));
+        for (String file : chunkFileNames) opening.add(open(folder.resolve(file), DatabaseCodec.LEDGER, keys));
+
+        List<Shard> shards = new ArrayList<>();
+        IOException failure = null;
+        for (CompletableFuture<Shard> future : opening) {
+            try {
+                shards.add(future.join());
+            } catch (CompletionException e) {
+                if (failure == null) failure = e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+            }
+        }
+        if (failure != null) {
+            for (Shard shard : shards) shard.source().close();
+            throw failure;
+        }
+
+        try {
+            Shard directory = shards.get(0);
+            BinaryReader[] banks = new BinaryReader[sortCodes.length];
+            HistoryStore[] bankHistories = new HistoryStore[sortCodes.length];
+            for (int i = 0; i < banks.length; i++) {
+                banks[i] = shards.get(1 + i).entities();
+                bankHistories[i] = shards.get(1 + i).history();
+            }
+
+            Ledger ledger = new Ledger();
+            BankDatabase database = DatabaseCodec.readShards(journalSequence, directory.entities(), banks, bankHistories, accountBanks, ledger);
+
+            HistoryStore[] chunks = new HistoryStore[chunkFileNames.length];
+            for (int i = 0; i < chunks.length; i++) {
+                BinaryReader chunk = shards.get(1 + banks.length + i).entities();
+                int rows = Math.min(chunkRows, ledgerSize - i * chunkRows);
+                if (chunk.readVarInt() != i || chunk.readVarInt() != rows) throw new IOException("Error: '" + chunkFileNames[i] + "' does not hold Ledger chunk " + i);
+                chunks[i] = shards.get(1 + banks.length + i).history();
+                chunks[i].setLength((long) rows * Ledger.ROW_LENGTH);
+            }
+            ledger.attach(chunks, new long[chunks.length], chunkRows, ledgerSize);
+
+            for (Shard shard : shards) {
+                if (shard.history().getBase() + shard.history().getLength() > shard.source().length()) {
+                    throw new IOException("Error: A shard's history runs past the end of its file");
+                }
+            }
+            for (int i = 0; i < sortCodes.length; i++) {
+                if (!database.getBanks().get(i).getSortCode().equals(sortCodes[i])) throw new IOException("Error: '" + bankFileNames[i] + "' does not hold Bank " + sortCodes[i]);
+            }
+
+            Map<String, String> bankFiles = new HashMap<>();
+            for (int i = 0; i < sortCodes.length; i++) bankFiles.put(sortCodes[i], bankFileNames[i]);
+            ShardStore loaded = new ShardStore(generation, directoryFile, bankFiles, new ArrayList<>(List.of(chunkFileNames)), ledgerSize);
+            loaded.persistedLoggedInUser = database.getLoggedInUser();
+            database.setShards(loaded);
+            return database;
+        } catch (IOException | RuntimeException e) {
+            for (Shard shard : shards) shard.source().close();
+            throw e;
+        }
+    }
+
+    // Decrypting each shard's entities is most of a load, so every shard is opened on its own thread
+    private static CompletableFuture<Shard> open(Path path, byte kind, KeyManager keys) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return openShard(path, kind, keys);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+}
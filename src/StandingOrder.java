@@ -0,0 +1,88 @@
+import java.time.LocalDateTime;
+import java.time.Period;
+
+// Payments from one of a User's Accounts to one of their Connections, once on firstDue or every interval after it
+// Each due date is worked out from firstDue, so a monthly order from the 31st stays on the last day of each month
+public class StandingOrder {
+    private final String id;
+    private final User user;
+    private final Account fromAccount;
+    private final Connection connection;
+    private final long amount; // Pence
+    private final String reference; // null for the Connection's
+    private final Period interval; // null for a single future dated payment
+    private final LocalDateTime firstDue;
+    private int runs; // Payments made or missed so far
+
+    public StandingOrder(String id, User user, Account fromAccount, Connection connection, long amount, String reference, Period interval, LocalDateTime firstDue, int runs) {
+        this.id = id;
+        this.user = user;
+        this.fromAccount = fromAccount;
+        this.connection = connection;
+        this.amount = amount;
+        this.reference = reference;
+        this.interval = interval;
+        this.firstDue = firstDue;
+        this.runs = runs;
+    }
+
+    @Override
+    public String toString() {
+        LocalDateTime nextDue = getNextDue();
+        return Utility.formatMoney(amount) + " FROM " + fromAccount.formatName() + " TO " + connection.getToAccount().formatName()
+                + (interval == null ? "" : " every " + interval)
+                + (nextDue == null ? " [PAID]" : ", next due " + Utility.formatDate(nextDue));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Account getFromAccount() {
+        return fromAccount;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    // As it goes on each payment
+    public String getReference() {
+        return reference == null ? connection.getReference() : reference;
+    }
+
+    // null when it falls back to the Connection's
+    String getOwnReference() {
+        return reference;
+    }
+
+    public Period getInterval() {
+        return interval;
+    }
+
+    public LocalDateTime getFirstDue() {
+        return firstDue;
+    }
+
+    public int getRuns() {
+        return runs;
+    }
+
+    // null once a single payment has been made
+    public LocalDateTime getNextDue() {
+        if (interval == null) return runs == 0 ? firstDue : null;
+        return firstDue.plus(interval.multipliedBy(runs));
+    }
+
+    void addRun() {
+        runs++;
+    }
+}
@@ -0,0 +1,105 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Hierarchical timing wheel: LEVELS wheels of SLOTS slots, a slot on each level spanning a whole turn of the level below
+// Scheduling and every tick are O(1) however much is pending. An item is only touched when it is scheduled, when its
+// slot on a higher level comes round and it drops a level, and when it falls due
+// There is no cancel, the owner checks each item it is handed is still wanted
+// Not thread safe, the owner only uses it from one thread
+public class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 5; // 64^5 ticks, about 34 years of one second ticks
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS); // Further out is parked on the top level until it is in range
+
+    private static final class Node<T> {
+        private final long dueTick;
+        private final T item;
+        private Node<T> next;
+
+        private Node(long dueTick, T item, Node<T> next) {
+            this.dueTick = dueTick;
+            this.item = item;
+            this.next = next;
+        }
+    }
+
+    private final long tickMillis;
+    private final Node<T>[][] wheels;
+    private final List<T> overdue; // Scheduled for a tick already passed, handed out on the next advance
+    private long currentTick; // Every tick up to and including this one has been handed out
+    private int size;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long startMillis) {
+        if (tickMillis < 1) throw new IllegalArgumentException("Error: TimingWheel tick " + tickMillis + " must be positive");
+        this.tickMillis = tickMillis;
+        this.wheels = (Node<T>[][]) new Node[LEVELS][SLOTS];
+        this.overdue = new ArrayList<>();
+        this.currentTick = Math.floorDiv(startMillis, tickMillis);
+        this.size = 0;
+    }
+
+    // Handed out by the first advance to a time at or after dueMillis, rounded up to a whole tick
+    public void schedule(long dueMillis, T item) {
+        // Rounded up, so nothing is handed out before it is due
+        long dueTick = Math.floorDiv(dueMillis, tickMillis) + (Math.floorMod(dueMillis, tickMillis) == 0 ? 0 : 1);
+        size++;
+        if (dueTick <= currentTick) overdue.add(item);
+        else place(new Node<>(dueTick, item, null));
+    }
+
+    // The lowest level whose turn still reaches dueTick, in the slot dueTick falls in on that level
+    private void place(Node<T> node) {
+        long slotTick = Math.min(node.dueTick, currentTick + SPAN - 1);
+        long delta = slotTick - currentTick;
+        int level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1))) level++;
+
+        int slot = (int) (slotTick >>> (SLOT_BITS * level)) & MASK;
+        node.next = wheels[level][slot];
+        wheels[level][slot] = node;
+    }
+
+    // Every item due up to nowMillis, a tick at a time. Each tick first drops the higher level slots that have come
+    // round to the levels below, then hands out the level 0 slot
+    public List<T> advance(long nowMillis) {
+        List<T> due = new ArrayList<>(overdue);
+        overdue.clear();
+
+        long targetTick = Math.floorDiv(nowMillis, tickMillis);
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) cascade(level, due);
+            }
+
+            int slot = (int) currentTick & MASK;
+            for (Node<T> node = wheels[0][slot]; node != null; node = node.next) due.add(node.item);
+            wheels[0][slot] = null;
+        }
+        size -= due.size();
+        return due;
+    }
+
+    private void cascade(int level, List<T> due) {
+        int slot = (int) (currentTick >>> (SLOT_BITS * level)) & MASK;
+        Node<T> node = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (node != null) {
+            Node<T> next = node.next;
+            if (node.dueTick <= currentTick) due.add(node.item);
+            else place(node);
+            node = next;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+}
@@ -1,16 +1,15 @@
-import java.io.Serializable;
 import java.time.LocalDateTime;
 
-public class Transaction implements Serializable {
+public class Transaction {
     private final String id;
     private final Account fromAccount;
     private final Account toAccount;
-    private final double amount;
-    private final double charge;
+    private final long amount; // Pence
+    private final long charge;
     private final LocalDateTime timeStamp;
     private final String reference;
 
-    public Transaction(String id, Account fromAccount, Account toAccount, double amount, double charge, LocalDateTime timeStamp, String reference) {
+    public Transaction(String id, Account fromAccount, Account toAccount, long amount, long charge, LocalDateTime timeStamp, String reference) {
         this.id = id;
         this.fromAccount = fromAccount;
         this.toAccount = toAccount;
@@ -20,7 +19,7 @@ public class Transaction implements Serializable {
         this.reference = reference;
     }
 
-    public Transaction(String id, Account fromAccount, Account toAccount, double amount, double charge, LocalDateTime timeStamp) {
+    public Transaction(String id, Account fromAccount, Account toAccount, long amount, long charge, LocalDateTime timeStamp) {
         this.id = id;
         this.fromAccount = fromAccount;
         this.toAccount = toAccount;
@@ -35,9 +34,15 @@ public class Transaction implements Serializable {
         String endingInfo = " (" + reference + ") [@" + Utility.formatDate(timeStamp) + "]";
         if (account != null) {
             if (account == fromAccount) return Utility.formatMoney(amount) + " (+" + Utility.formatMoney(charge) + " CHARGE) TO " + toAccount.formatName() + endingInfo;
-            return Utility.formatMoney(amount) + " FROM " + fromAccount.formatName() + endingInfo;
+            return Utility.formatMoney(amount) + " FROM " + formatFromName() + endingInfo;
         }
-        return Utility.formatMoney(amount) + " (+" + Utility.formatMoney(charge) + " CHARGE) FROM " + fromAccount.formatName() + " TO " + toAccount.formatName() + endingInfo;
+        return Utility.formatMoney(amount) + " (+" + Utility.formatMoney(charge) + " CHARGE) FROM " + formatFromName() + " TO " + toAccount.formatName() + endingInfo;
+    }
+
+    // No fromAccount when the Bank paid it
+    private String formatFromName() {
+        if (fromAccount == null) return "The Bank";
+        return fromAccount.formatName();
     }
 
     @Override
@@ -45,12 +50,12 @@ public class Transaction implements Serializable {
         return toString(null);
     }
 
-    public double getAmount(Account account) {
+    public long getAmount(Account account) {
         if (account == fromAccount) return -1 * (amount + charge);
         return amount;
     }
 
-    public double getCharge() {
+    public long getCharge() {
         return charge;
     }
 
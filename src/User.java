@@ -1,8 +1,7 @@
-import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 
-public class User implements Serializable {
+public class User {
     private final String id;
     private final String username;
     private final Password password;
@@ -13,6 +12,10 @@ public class User implements Serializable {
     private final DynamicList<Connection> connectedAccounts;
     private LocalDateTime unlockTime;
     private int numberOfTimesLocked;
+    // Worked out from title and fullName once, they never change
+    private String name;
+    private String payeeName;
+    private String lastName;
 
     public User(String id, String username, Password password, DynamicList<SecurityQuestion> securityQuestions, String title, String fullName, DynamicList<Account> accounts, DynamicList<Connection> connectedAccounts, LocalDateTime unlockTime, int numberOfTimesLocked) {
         this.id = id; // UUID
@@ -29,9 +32,17 @@ public class User implements Serializable {
         this.unlockTime = unlockTime; // LocalDateTime where the account is unlocked
         this.numberOfTimesLocked = numberOfTimesLocked; // Number of times locked since last login
 
+        formatNames();
         setNames(); // Set correctly formatted DynamicList names
     }
 
+    private void formatNames() {
+        String[] names = fullName.split(" ");
+        lastName = names[names.length - 1];
+        name = title + " " + names[0] + " " + middleNames(names) + lastName;
+        payeeName = title + " " + names[0].charAt(0) + " " + lastName;
+    }
+
     private void setNames() {
         securityQuestions.setName(Utility.formatPossession(formatName()) + " Security Questions");
         accounts.setName(Utility.formatPossession(formatName()) + " Accounts");
@@ -75,33 +86,43 @@ public class User implements Serializable {
         return username;
     }
 
+    Password getPassword() {
+        return password;
+    }
+
+    DynamicList<SecurityQuestion> getSecurityQuestions() {
+        return securityQuestions;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    String getFullName() {
+        return fullName;
+    }
+
     // Mr John A. Smith
     public String formatName() {
-        return title + " " + firstName() + " " + middleNames() + lastName();
+        return name;
     }
 
     // 'MR J SMITH'
     public String formatPayeeName() {
-        return title + " " + firstName().charAt(0) + " " + lastName();
+        return payeeName;
     }
 
     public Boolean checkPayeeName(String payeeName) {
-        return payeeName.equalsIgnoreCase(formatPayeeName());
+        return payeeName.equalsIgnoreCase(this.payeeName);
     }
 
     public Boolean checkLastName(User user) {
-        return lastName().equals(user.lastName());
-    }
-
-    // 'John'
-    private String firstName() {
-        return fullName.split(" ")[0];
+        return lastName.equals(user.lastName);
     }
 
     // 'A. B. C.'
-    private String middleNames() {
+    private static String middleNames(String[] names) {
         StringBuilder output = new StringBuilder();
-        String[] names = fullName.split(" ");
 
         for (int i = 1; i < names.length - 1; i++) {
             output.append(names[i].charAt(0)).append(". ");
@@ -110,11 +131,6 @@ public class User implements Serializable {
         return output.toString();
     }
 
-    // Smith
-    private String lastName() {
-        return fullName.split(" ")[fullName.split(" ").length - 1];
-    }
-
     public Boolean checkFullName(String attemptedFullName) {
         return fullName.equals(attemptedFullName);
     }
@@ -191,6 +207,20 @@ public class User implements Serializable {
         numberOfTimesLocked = 0;
     }
 
+    public LocalDateTime getUnlockTime() {
+        return unlockTime;
+    }
+
+    public int getNumberOfTimesLocked() {
+        return numberOfTimesLocked;
+    }
+
+    // Restores the lock state recorded in the Journal
+    void setLock(LocalDateTime unlockTime, int numberOfTimesLocked) {
+        this.unlockTime = unlockTime;
+        this.numberOfTimesLocked = numberOfTimesLocked;
+    }
+
     public boolean isUnlocked() {
         return unlockTime.isBefore(Utility.now());
     }
@@ -1,13 +1,12 @@
 import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
+import javax.crypto.CipherInputStream;
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.spec.KeySpec;
-import java.text.DecimalFormat;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -15,8 +14,10 @@ import java.util.Random;
 import java.util.Scanner;
 
 public class Utility {
-    private static final String ENCRYPTED_FILE_NAME = "bankDatabase.ser";
+    static final String ENCRYPTED_FILE_NAME = "bankDatabase.ser";
+    static final int STREAM_BUFFER_SIZE = 1 << 16;
     private static final Scanner input = new Scanner(System.in);
+    private static final String MONEY_REGEX = "^[0-9]{1,13}([.][0-9]{1,2})?$";
 
     public static DynamicList<String> readFileLines(String fileName) {
         DynamicList<String> lines = new DynamicList<>("'" + fileName + "' Lines");
@@ -38,9 +39,23 @@ public class Utility {
     }
 
     // FORMATTERS
-    public static String formatMoney(double amount) {
-        DecimalFormat decimalFormat = new DecimalFormat("£#,##0.00");
-        return decimalFormat.format(amount);
+    // £#,##0.00 from pence, built by hand as DecimalFormat is costly to create per call
+    public static String formatMoney(long amount) {
+        StringBuilder output = new StringBuilder(16);
+        if (amount < 0) output.append('-');
+        long pence = Math.abs(amount);
+
+        String pounds = Long.toString(pence / 100);
+        output.append('£');
+        for (int i = 0; i < pounds.length(); i++) {
+            if (i != 0 && (pounds.length() - i) % 3 == 0) output.append(',');
+            output.append(pounds.charAt(i));
+        }
+
+        long remainder = pence % 100;
+        output.append('.');
+        if (remainder < 10) output.append('0');
+        return output.append(remainder).toString();
     }
 
     public static String formatPossession(String item) {
@@ -53,8 +68,12 @@ public class Utility {
         return item + "s";
     }
 
-    public static String formatPercent(double percent) {
-        return (percent * 100) + "%";
+    public static String formatPercent(int basisPoints) {
+        String output = String.valueOf(basisPoints / 100);
+        int remainder = Math.abs(basisPoints % 100);
+        if (remainder == 0) return output + "%";
+        if (remainder % 10 == 0) return output + "." + (remainder / 10) + "%";
+        return output + "." + (remainder < 10 ? "0" : "") + remainder + "%";
     }
 
     public static String formatId(String id) {
@@ -88,6 +107,42 @@ public class Utility {
         return getDoubleInput(output);
     }
 
+    // Pounds to pence, exactly
+    public static long getMoneyInput(String output) {
+        Utility.print(output + " - ", false);
+        String choice = input.nextLine();
+
+        if (isMoney(choice)) return parseHundredths(choice);
+        return getMoneyInput(output);
+    }
+
+    public static Boolean isMoney(String value) {
+        return value.matches(MONEY_REGEX);
+    }
+
+    // Pounds to pence, for values already checked with isMoney
+    public static long parseMoney(String value) {
+        return parseHundredths(value);
+    }
+
+    // Percent to basis points, e.g. 1.5 -> 150
+    public static int getRateInput(String output) {
+        Utility.print(output + " - ", false);
+        String choice = input.nextLine();
+
+        if (choice.matches("^[0-9]{1,4}([.][0-9]{1,2})?$")) return (int) parseHundredths(choice);
+        return getRateInput(output);
+    }
+
+    private static long parseHundredths(String value) {
+        int point = value.indexOf('.');
+        if (point == -1) return Long.parseLong(value) * 100;
+
+        String fraction = value.substring(point + 1);
+        long hundredths = Long.parseLong(fraction) * (fraction.length() == 1 ? 10 : 1);
+        return Long.parseLong(value.substring(0, point)) * 100 + hundredths;
+    }
+
     public static int getIntInput(String output, DynamicList<?> options) {
         int returnInt;
 
@@ -104,6 +159,17 @@ public class Utility {
         return getIntInput(output, options);
     }
 
+    public static int getWholeNumberInput(String output, int max) {
+        Utility.print(output + " [0-" + max + "] - ", false);
+        String choice = input.nextLine();
+
+        if (choice.matches("[0-9]{1,9}")) {
+            int returnInt = Integer.parseInt(choice);
+            if (returnInt <= max) return returnInt;
+        }
+        return getWholeNumberInput(output, max);
+    }
+
     public static String getInput(String output) {
         Utility.print(output + " - ", false);
         return input.nextLine();
@@ -191,6 +257,18 @@ public class Utility {
         print("\033[97m" + obj + "\033[0m");
     }
 
+    // MONEY
+    // amount * basisPoints / 10,000, rounded half up
+    public static long applyRate(long amount, int basisPoints) {
+        return Math.floorDiv(Math.multiplyExact(amount, basisPoints) + 5_000, 10_000);
+    }
+
+    // Simple interest on amount for days at an annual rate of basisPoints, a 365 day year, rounded half up
+    public static long applyDailyRate(long amount, int basisPoints, long days) {
+        long divisor = 10_000L * 365;
+        return Math.floorDiv(Math.multiplyExact(amount, Math.multiplyExact(basisPoints, days)) + divisor / 2, divisor);
+    }
+
     // TIME
     public static LocalDateTime now() {
         return LocalDateTime.now();
@@ -201,54 +279,45 @@ public class Utility {
     }
 
     // CRYPTOGRAPHY
-    private static SecretKey generateKey(String password) {
-        try {
-            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-            KeySpec spec = new PBEKeySpec(password.toCharArray(), "salt".getBytes(), 65536, 256);
-            SecretKey tmp = factory.generateSecret(spec);
-            return new SecretKeySpec(tmp.getEncoded(), "AES");
-        } catch (Exception e) {
-            printError(e.getMessage());
-        }
-        return null;
+    // Writes the shards that changed since the last save, see ShardStore
+    // Returns whether it was written
+    public static Boolean encryptAndWriteObject(BankDatabase database, KeyManager keys) {
+        return database.getShards().save(database, keys);
     }
 
-    // Encrypt serialized object using AES and write to "bankDatabase.ser"
-    public static void encryptAndWriteObject(Serializable object, String password) {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             ObjectOutputStream oos = new ObjectOutputStream(baos)) {
-
-            oos.writeObject(object);
-            oos.flush();
-
-            SecretKey secretKey = generateKey(password);
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-
-            byte[] serializedBytes = baos.toByteArray();
-            byte[] encryptedBytes = cipher.doFinal(serializedBytes);
-
-            Files.write(Paths.get(ENCRYPTED_FILE_NAME), encryptedBytes);
-        } catch (Exception e) {
-            printError(e.getMessage());
+    // Makes the rename itself durable, not every platform lets a directory be opened so failure is ignored
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // Windows
         }
     }
 
-    // Read  from "bankDatabase.ser" and decrypt serialized object
-    public static BankDatabase readAndDecryptObject(String password) {
+    // Read from "bankDatabase.ser", the manifest of the shards (see ShardStore) which are mapped and left open, the
+    // transaction history is read from them as it is needed
+    // Anything else is a Java serialized database from a release before the shards, one AES blob. It is migrated by
+    // LegacyMigration and written straight back as shards, the old file is kept beside them
+    public static BankDatabase readAndDecryptObject(KeyManager keys) {
+        Path path = Paths.get(ENCRYPTED_FILE_NAME);
         try {
-            SecretKey secretKey = generateKey(password);
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-
-            byte[] encryptedBytes = Files.readAllBytes(Paths.get(ENCRYPTED_FILE_NAME));
-            byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
+            byte[] header;
+            try (InputStream in = Files.newInputStream(path)) {
+                header = in.readNBytes(4);
+            }
+            if (SegmentedCipher.isSegmented(header)) return ShardStore.load(new SegmentedCipher.Mapped(path, keys), keys);
 
-            try (ByteArrayInputStream bais = new ByteArrayInputStream(decryptedBytes);
-                 ObjectInputStream ois = new ObjectInputStream(bais)) {
+            printLog("Migrating '%d' from version 1, the old copy is kept as '%d'", ENCRYPTED_FILE_NAME, ENCRYPTED_FILE_NAME + ".v1");
+            Files.copy(path, Paths.get(ENCRYPTED_FILE_NAME + ".v1"), StandardCopyOption.REPLACE_EXISTING);
 
-                return (BankDatabase) ois.readObject();
+            Cipher cipher = keys.getCipher("AES");
+            cipher.init(Cipher.DECRYPT_MODE, keys.getKey());
+            BankDatabase database;
+            try (InputStream in = new BufferedInputStream(new CipherInputStream(Files.newInputStream(path), cipher), STREAM_BUFFER_SIZE)) {
+                database = LegacyMigration.read(in);
             }
+            if (!encryptAndWriteObject(database, keys)) return null;
+            return database;
         } catch (Exception e) {
             printError(e.getMessage());
         }
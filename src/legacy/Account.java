@@ -0,0 +1,60 @@
+package legacy;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+// Money in pounds, transactions holds every Transaction to or from it
+public class Account implements Serializable {
+    private static final long serialVersionUID = 6863543689667944726L;
+
+    private String id;
+    private AccountType type;
+    private String number;
+    private String sortCode;
+    private double initialBalance;
+    private double balance;
+    private DynamicList<Transaction> transactions;
+    private DynamicList<User> users;
+    private LocalDateTime createdAt;
+    private Status status;
+
+    public String getId() {
+        return id;
+    }
+
+    public AccountType getType() {
+        return type;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public String getSortCode() {
+        return sortCode;
+    }
+
+    public double getInitialBalance() {
+        return initialBalance;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    public DynamicList<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    public DynamicList<User> getUsers() {
+        return users;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,13 @@
+package legacy;
+
+// Enums are serialized by name, so only the constants are kept
+public enum AccountType {
+    SAVINGS,
+    YOUNG_SAVERS,
+    SPENDING,
+    CHECKING,
+    BUSINESS,
+    JOINT,
+    PERSONAL,
+    STUDENT
+}
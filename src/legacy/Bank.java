@@ -0,0 +1,54 @@
+package legacy;
+
+import java.io.Serializable;
+
+// Money in pounds and rates as fractions (0.01 is 1%). transactions holds every Transaction made from its Accounts
+public class Bank implements Serializable {
+    private static final long serialVersionUID = -7984120177514274385L;
+
+    private String id;
+    private String name;
+    private String sortCode;
+    private double interestRate;
+    private double transactionCharge;
+    private double initialBalance;
+    private double balance;
+    private DynamicList<Account> accounts;
+    private DynamicList<Transaction> transactions;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSortCode() {
+        return sortCode;
+    }
+
+    public double getInterestRate() {
+        return interestRate;
+    }
+
+    public double getTransactionCharge() {
+        return transactionCharge;
+    }
+
+    public double getInitialBalance() {
+        return initialBalance;
+    }
+
+    public double getBalance() {
+        return balance;
+    }
+
+    public DynamicList<Account> getAccounts() {
+        return accounts;
+    }
+
+    public DynamicList<Transaction> getTransactions() {
+        return transactions;
+    }
+}
@@ -0,0 +1,27 @@
+package legacy;
+
+import java.io.Serializable;
+
+// The BankDatabase as every release before the Ledger Java serialized it, with its Users, Banks, Accounts and
+// Transactions. The classes in this package are only ever read, by LegacyMigration, which resolves the names in an
+// old stream to them. Their fields and serialVersionUIDs are those of the released classes and must not change
+public class BankDatabase implements Serializable {
+    private static final long serialVersionUID = 6093329000917945236L;
+
+    private DynamicList<User> users;
+    private DynamicList<Bank> banks;
+    private DynamicList<String[]> securityQuestionInfo;
+    private User loggedInUser;
+
+    public DynamicList<User> getUsers() {
+        return users;
+    }
+
+    public DynamicList<Bank> getBanks() {
+        return banks;
+    }
+
+    public User getLoggedInUser() {
+        return loggedInUser;
+    }
+}
@@ -0,0 +1,28 @@
+package legacy;
+
+import java.io.Serializable;
+
+public class Connection implements Serializable {
+    private static final long serialVersionUID = 2238441320571208384L;
+
+    private String id;
+    private User user;
+    private Account toAccount;
+    private String reference;
+
+    public String getId() {
+        return id;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Account getToAccount() {
+        return toAccount;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+}
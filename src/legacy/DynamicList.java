@@ -0,0 +1,30 @@
+package legacy;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+
+// Only the fields the list serialized, the first size elements of array are the list
+public class DynamicList<DataType> implements Iterable<DataType>, Serializable {
+    private static final long serialVersionUID = -6316163034110877990L;
+
+    private String name;
+    private Object[] array;
+    private int size;
+    private Boolean leaderboard;
+
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public DataType get(int index) {
+        return (DataType) array[index];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<DataType> iterator() {
+        return (Iterator<DataType>) Arrays.asList(array).subList(0, size).iterator();
+    }
+}
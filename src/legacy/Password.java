@@ -0,0 +1,29 @@
+package legacy;
+
+import java.io.Serializable;
+
+// Hashed with SHA-256 over the salt and password, chained 1,000,000 times
+public class Password implements Serializable {
+    private static final long serialVersionUID = -1840836923522447922L;
+
+    private byte[] salt;
+    private byte[] hashedPassword;
+    private int attempts;
+    private int maxAttempts;
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHashedPassword() {
+        return hashedPassword;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
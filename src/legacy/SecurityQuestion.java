@@ -0,0 +1,28 @@
+package legacy;
+
+import java.io.Serializable;
+
+public class SecurityQuestion implements Serializable {
+    private static final long serialVersionUID = 1511864780034326975L;
+
+    private String id;
+    private String output;
+    private String regex;
+    private Password answer;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public String getRegex() {
+        return regex;
+    }
+
+    public Password getAnswer() {
+        return answer;
+    }
+}
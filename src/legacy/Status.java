@@ -0,0 +1,7 @@
+package legacy;
+
+public enum Status {
+    ACTIVE,
+    FROZEN,
+    CLOSED
+}
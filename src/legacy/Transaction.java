@@ -0,0 +1,45 @@
+package legacy;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+// In pounds, fromAccount paid amount + charge and its Bank kept the charge
+public class Transaction implements Serializable {
+    private static final long serialVersionUID = 6175253130875306524L;
+
+    private String id;
+    private Account fromAccount;
+    private Account toAccount;
+    private double amount;
+    private double charge;
+    private LocalDateTime timeStamp;
+    private String reference;
+
+    public String getId() {
+        return id;
+    }
+
+    public Account getFromAccount() {
+        return fromAccount;
+    }
+
+    public Account getToAccount() {
+        return toAccount;
+    }
+
+    public double getAmount() {
+        return amount;
+    }
+
+    public double getCharge() {
+        return charge;
+    }
+
+    public LocalDateTime getTimeStamp() {
+        return timeStamp;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+}
@@ -0,0 +1,59 @@
+package legacy;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+public class User implements Serializable {
+    private static final long serialVersionUID = -8805116775445762242L;
+
+    private String id;
+    private String username;
+    private Password password;
+    private DynamicList<SecurityQuestion> securityQuestions;
+    private String title;
+    private String fullName;
+    private DynamicList<Account> accounts;
+    private DynamicList<Connection> connectedAccounts;
+    private LocalDateTime unlockTime;
+    private int numberOfTimesLocked;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Password getPassword() {
+        return password;
+    }
+
+    public DynamicList<SecurityQuestion> getSecurityQuestions() {
+        return securityQuestions;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getFullName() {
+        return fullName;
+    }
+
+    public DynamicList<Account> getAccounts() {
+        return accounts;
+    }
+
+    public DynamicList<Connection> getConnectedAccounts() {
+        return connectedAccounts;
+    }
+
+    public LocalDateTime getUnlockTime() {
+        return unlockTime;
+    }
+
+    public int getNumberOfTimesLocked() {
+        return numberOfTimesLocked;
+    }
+}